@@ -4,12 +4,14 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.utils.Array;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.pieces.AbstractGamePiece;
+import com.hyperkinetic.game.pieces.DoubleMirrorPiece;
+import com.hyperkinetic.game.pieces.GuardianPiece;
 import com.hyperkinetic.game.pieces.KingPiece;
 import com.hyperkinetic.game.pieces.LaserPiece;
+import com.hyperkinetic.game.pieces.SingleMirrorPiece;
 import com.hyperkinetic.game.playflow.GameMessage;
 import com.hyperkinetic.game.util.Directions;
 
@@ -17,6 +19,10 @@ import com.hyperkinetic.game.util.Directions;
  * A superclass for all laser game boards. Contains code to render the game board as well as static
  * functionality to track the game state.
  *
+ * The position itself is held in a {@link BoardState}, which is all the server needs to validate moves and fire
+ * lasers. The piece objects used for rendering and mouse input are only built once the board is initialized
+ * on the client.
+ *
  * @author cqwillia briannlz
  */
 
@@ -68,7 +74,12 @@ public abstract class AbstractGameBoard {
      */
     protected Array<AbstractBoardTile> tiles;
     /**
-     * Array that includes all of the pieces on th board.
+     * The position on the board: pieces, their colours and orientations, and the side to move.
+     */
+    protected BoardState state;
+    /**
+     * Array that includes all of the pieces on th board. Built from {@link #state} by <code>initialize()</code>,
+     * so it is null until the board is rendered.
      */
     protected Array<AbstractGamePiece> pieces;
 
@@ -114,11 +125,20 @@ public abstract class AbstractGameBoard {
      * Determines if this game board describes a local game.
      */
     private boolean local;
+    /**
+     * Whether one side of a local game is played by the computer, and which side that is.
+     */
+    private transient boolean hasComputer;
+    private transient boolean computerColor;
 
     /**
-     * The laser that is to be drawn.
+     * The path and result of the last laser fired on this board.
      */
-    private Array<Rectangle> lasersToDraw;
+    private transient LaserTrace laserTrace;
+    /**
+     * The piece objects destroyed by lasers, oldest first, kept so that turns can be taken back.
+     */
+    private transient Array<AbstractGamePiece> destroyedPieces;
     /**
      * The duration time of laser on the board.
      */
@@ -151,13 +171,15 @@ public abstract class AbstractGameBoard {
 
     public AbstractGameBoard(int x, int y, boolean hasTurn) {
         tiles = new Array<>();
-        pieces = new Array<>();
+        state = new BoardState(x, y);
+        pieces = null;
         aPharaoh = null;
         bPharaoh = null;
         aLaser = null;
         bLaser = null;
         laserDuration = System.currentTimeMillis();
-        lasersToDraw = new Array<>();
+        laserTrace = new LaserTrace();
+        destroyedPieces = new Array<>();
         nextMove = null;
         moveConfirmed = false;
         pickedUpPiece = null;
@@ -205,6 +227,8 @@ public abstract class AbstractGameBoard {
         }
         pieceDim = tileDim * 4 / 5;
 
+        buildPieces();
+        destroyedPieces.clear();
         for(AbstractGamePiece piece : pieces)
             if(piece != null) piece.loadRegion();
 
@@ -235,7 +259,7 @@ public abstract class AbstractGameBoard {
      */
     public static boolean rightClick(int oldX, int oldY, int newX, int newY)
     {
-        if(!checkClickBounds(oldX, oldY, newX, newY)) return false;
+        if(board.isComputerTurn() || !checkClickBounds(oldX, oldY, newX, newY)) return false;
         // Open an informational piece / tile dialog?
         AbstractGamePiece piece = board.pieces.get(board.tiles.indexOf(getTileFromLocation(newX, newY), true));
         if(piece.equals(board.aLaser) || piece.equals(board.bLaser))
@@ -251,7 +275,7 @@ public abstract class AbstractGameBoard {
      */
     public static boolean leftClick(int oldX, int oldY, int newX, int newY)
     {
-        if(!checkClickBounds(oldX, oldY, newX, newY)) return false;
+        if(board.isComputerTurn() || !checkClickBounds(oldX, oldY, newX, newY)) return false;
 
         // Get the piece from the clicked tile and check that it is non-null
         AbstractGamePiece piece = board.pieces.get(board.tiles.indexOf(getTileFromLocation(newX, newY), true));
@@ -287,8 +311,7 @@ public abstract class AbstractGameBoard {
 
         // If the player clicked on the destination of the current move, revert the current move
         if(board.nextMove != null &&
-                ((piece.getX() == board.nextMove.moveX && piece.getY() == board.nextMove.moveY) ||
-                 (board.nextMove.moveType.contains("rotate")) && piece.getX() == board.nextMove.x && piece.getY() == board.nextMove.y))
+                board.state.cell(piece.getX(), piece.getY()) == Move.to(board.nextMove.move))
         {
             board.pieceSound.play();
             board.undoMove();
@@ -310,6 +333,8 @@ public abstract class AbstractGameBoard {
      */
     public static boolean keyPressed(String key)
     {
+        if(board.isComputerTurn()) return false;
+
         if(key.equals("Q"))
         {
             board.pieceSound.play();
@@ -320,6 +345,14 @@ public abstract class AbstractGameBoard {
             board.pieceSound.play();
             return board.makeMove(AbstractBoardTile.ROTATE_RIGHT);
         }
+        else if(key.equals("Z") && board.local)
+        {
+            board.pieceSound.play();
+            boolean undone = board.undoTurn();
+            // take back the reply of the computer as well, so that it is the player's turn again
+            if(undone && board.isComputerTurn()) board.undoTurn();
+            return undone;
+        }
 
         return false;
     }
@@ -336,11 +369,11 @@ public abstract class AbstractGameBoard {
 
         // Check if the move is a rotation
         if(tile == AbstractBoardTile.ROTATE_LEFT) {
-            update(pickedUpPiece.getX(), pickedUpPiece.getY(), "rotateL", -1, -1);
+            update(Move.rotation(state.cell(pickedUpPiece.getX(), pickedUpPiece.getY()), Move.ROTATE_LEFT));
             pickedUpPiece = null;
         }
         else if(tile == AbstractBoardTile.ROTATE_RIGHT) {
-            update(pickedUpPiece.getX(), pickedUpPiece.getY(), "rotateR", -1, -1);
+            update(Move.rotation(state.cell(pickedUpPiece.getX(), pickedUpPiece.getY()), Move.ROTATE_RIGHT));
             pickedUpPiece = null;
         }
 
@@ -350,7 +383,7 @@ public abstract class AbstractGameBoard {
             int pIndex = pieces.indexOf(pickedUpPiece, true);
             int tIndex = tiles.indexOf(tile, true);
 
-            update(pIndex % x, pIndex / x, "move",tIndex % x, tIndex / x);
+            update(Move.encode(pIndex, tIndex, Move.STEP));
         }
         // Otherwise, drop the piece
         else {
@@ -400,6 +433,33 @@ public abstract class AbstractGameBoard {
         return true;
     }
 
+    /**
+     * Lets the computer play one side of a local game. Input is ignored while it is the computer's turn.
+     *
+     * @param color the side played by the computer
+     */
+    public void setComputerPlayer(boolean color)
+    {
+        hasComputer = true;
+        computerColor = color;
+    }
+
+    /**
+     * @return whether it is the turn of the computer player of a local game
+     */
+    public boolean isComputerTurn() {
+        return local && hasComputer && state.isWhiteToMove() == computerColor && !isOver;
+    }
+
+    /**
+     * Indicates which player has the turn: in a local game, true means white; online, true means the local player.
+     *
+     * @return whether the player described above has the turn
+     */
+    public boolean hasTurn() {
+        return hasTurn;
+    }
+
     /**
      * Getter of the x-dimension of the board.
      *
@@ -430,12 +490,30 @@ public abstract class AbstractGameBoard {
     /**
      * Getter of the pieces array.
      *
-     * @return array of pieces
+     * @return array of pieces, or null if the board has not been initialized for rendering
      */
     public Array<AbstractGamePiece> getPieces() {
         return pieces;
     }
 
+    /**
+     * Getter of the board state.
+     *
+     * @return the position on this board
+     */
+    public BoardState getState() {
+        return state;
+    }
+
+    /**
+     * Getter of the Zobrist key of the position, which identifies it in constant time.
+     *
+     * @return the key of the position on this board, see {@link Zobrist}
+     */
+    public long getPositionKey() {
+        return state.getKey();
+    }
+
     /**
      * Getter of aLaser piece.
      *
@@ -460,7 +538,7 @@ public abstract class AbstractGameBoard {
      * @return active laser
      */
     public LaserPiece getActiveLaser() {
-        return (hasTurn ^ flipBoard) ? this.aLaser : this.bLaser;
+        return state.isWhiteToMove() ? this.aLaser : this.bLaser;
     }
 
     /**
@@ -483,10 +561,68 @@ public abstract class AbstractGameBoard {
     public abstract void createTiles();
 
     /**
-     * Abstract method which places pieces on the board.
+     * Abstract method which places pieces on the board state.
      */
     public abstract void createPieces();
 
+    /**
+     * Builds the piece objects used for rendering and input from the board state.
+     */
+    protected void buildPieces()
+    {
+        pieces = new Array<>(state.getCellCount());
+        aPharaoh = null;
+        bPharaoh = null;
+        aLaser = null;
+        bLaser = null;
+
+        for(int cell = 0; cell < state.getCellCount(); cell++)
+        {
+            AbstractGamePiece piece = createPiece(cell);
+            pieces.add(piece);
+
+            if(piece instanceof KingPiece)
+            {
+                if(piece.getColor()) aPharaoh = (KingPiece) piece;
+                else bPharaoh = (KingPiece) piece;
+            }
+            else if(piece instanceof LaserPiece)
+            {
+                if(piece.getColor()) aLaser = (LaserPiece) piece;
+                else bLaser = (LaserPiece) piece;
+            }
+        }
+    }
+
+    /**
+     * Creates the piece object describing the occupant of a cell of the board state.
+     *
+     * @param cell the cell index
+     * @return the new piece, or null if the cell is empty
+     */
+    private AbstractGamePiece createPiece(int cell)
+    {
+        int pX = state.cellX(cell);
+        int pY = state.cellY(cell);
+        boolean color = state.isWhite(cell);
+        int orientation = state.getOrientation(cell);
+
+        switch(state.getKind(cell))
+        {
+            case BoardState.KING:
+                return new KingPiece(pX, pY, color, Directions.toDirection(orientation));
+            case BoardState.LASER:
+                return new LaserPiece(pX, pY, color, Directions.toDirection(orientation));
+            case BoardState.GUARDIAN:
+                return new GuardianPiece(pX, pY, color, Directions.toDirection(orientation));
+            case BoardState.SINGLE_MIRROR:
+                return new SingleMirrorPiece(pX, pY, color, Directions.toMirrorDirection(orientation));
+            case BoardState.DOUBLE_MIRROR:
+                return new DoubleMirrorPiece(pX, pY, color, Directions.toMirrorDirection(orientation));
+        }
+        return null;
+    }
+
     /**
      * Renders the current game board. Called by the main game loop.
      *
@@ -515,21 +651,10 @@ public abstract class AbstractGameBoard {
             }
         }
 
-        if(System.currentTimeMillis() > laserDuration + 1000)
-            lasersToDraw.clear();
-
-        for(Rectangle laser : lasersToDraw)
+        if(System.currentTimeMillis() <= laserDuration + 1000)
         {
-            float drawX = laser.x;
-            float drawY = laser.y;
-            if(flipBoard)
-            {
-                drawX = Gdx.graphics.getWidth() - laser.x - laser.width;
-                drawY = Gdx.graphics.getHeight() - laser.y - laser.height;
-            }
-
-            sb.draw(laser.width > laser.height ? horizontalLaserTexture : verticalLaserTexture,
-                    drawX, drawY, laser.width, laser.height);
+            for(int i = 0; i < laserTrace.getSegmentCount(); i++)
+                drawLaser(sb, laserTrace.getSegmentCell(i), laserTrace.getSegmentDirection(i));
         }
 
         for(int i = 0; i < pieces.size; i++) {
@@ -598,10 +723,11 @@ public abstract class AbstractGameBoard {
      * @param x the x location on the board
      * @param y the y location on the board
      * @return the game piece at the given location,
-     * or <code>null</code> if either the coordinate is invalid or no piece is place on that tile.
+     * or <code>null</code> if either the coordinate is invalid, no piece is place on that tile
+     * or the board has not been initialized for rendering.
      */
     public AbstractGamePiece getPieceFromCoordinate(int x, int y) {
-        if (x < 0 || y < 0 || x >= this.x || y >= this.y) {
+        if (pieces == null || x < 0 || y < 0 || x >= this.x || y >= this.y) {
             return null;
         }
         return (pieces.get(y * this.x + x));
@@ -616,33 +742,24 @@ public abstract class AbstractGameBoard {
 
     /**
      * Update the board configuration
-     * @param x the x coordinate of the piece that is to be updated
-     * @param y the y coordinate of the piece that is to be updated
-     * @param moveType the type of the move, rotated or moved to a new location
-     * @param nX the new x coordinate of the piece
-     * @param nY the new y coordinate of the piece
-     */
-    public void update(int x,int y,String moveType,int nX,int nY){
-        AbstractGamePiece piece = getPieceFromCoordinate(x,y);
-        if(moveType.equals("rotateL")) {
-            pieceRotateLeft(piece);
-            if(!local && piece.equals(aLaser)) pieceRotateLeft(aLaser);
-            if(!local && piece.equals(bLaser)) pieceRotateLeft(bLaser);
-        } else if(moveType.equals("rotateR")) {
-            pieceRotateRight(piece);
-            if(!local && piece.equals(aLaser)) pieceRotateRight(aLaser);
-            if(!local && piece.equals(bLaser)) pieceRotateRight(bLaser);
+     * @param move the move code, as described in {@link Move}
+     */
+    public void update(int move){
+        int x = state.cellX(Move.from(move));
+        int y = state.cellY(Move.from(move));
+        int type = Move.type(move);
+
+        if(type == Move.ROTATE_LEFT) {
+            pieceRotateLeft(x, y);
+        } else if(type == Move.ROTATE_RIGHT) {
+            pieceRotateRight(x, y);
         } else {
-            pieceMove(piece,nX,nY);
+            pieceMove(x, y, state.cellX(Move.to(move)), state.cellY(Move.to(move)));
         }
 
-        GameMessage move = new GameMessage(GameMessage.messageType.PLAYER_MOVE);
-        move.x = x;
-        move.y = y;
-        move.moveType = moveType;
-        move.moveX = nX;
-        move.moveY = nY;
-        this.nextMove = move;
+        GameMessage message = new GameMessage(GameMessage.messageType.PLAYER_MOVE);
+        message.move = move;
+        this.nextMove = message;
     }
 
     /**
@@ -652,18 +769,16 @@ public abstract class AbstractGameBoard {
     {
         if(nextMove == null) return;
 
-        AbstractGamePiece piece;
-        if(nextMove.moveType.contains("rotate"))
-            piece = getPieceFromCoordinate(nextMove.x, nextMove.y);
-        else
-            piece = getPieceFromCoordinate(nextMove.moveX, nextMove.moveY);
+        int from = Move.from(nextMove.move);
+        int to = Move.to(nextMove.move);
+        int type = Move.type(nextMove.move);
 
-        if(nextMove.moveType.equals("rotateL")) {
-            piece.rotateRight();
-        } else if(nextMove.moveType.equals("rotateR")) {
-            piece.rotateLeft();
+        if(type == Move.ROTATE_LEFT) {
+            pieceRotateRight(state.cellX(from), state.cellY(from));
+        } else if(type == Move.ROTATE_RIGHT) {
+            pieceRotateLeft(state.cellX(from), state.cellY(from));
         } else {
-            pieceMove(piece, nextMove.x, nextMove.y);
+            pieceMove(state.cellX(to), state.cellY(to), state.cellX(from), state.cellY(from));
         }
 
         nextMove = null;
@@ -691,7 +806,7 @@ public abstract class AbstractGameBoard {
                     nextMove.userName = LaserGame.client.userName;
                     LaserGame.client.getPlayer().sendMessage(nextMove);
                 }
-                fireLaser(laser.getX(), laser.getY(), laser.getOrientation());
+                fireLaser();
                 return true;
             }
         }
@@ -705,7 +820,7 @@ public abstract class AbstractGameBoard {
                     nextMove.userName = LaserGame.client.userName;
                     LaserGame.client.getPlayer().sendMessage(nextMove);
                 }
-                fireLaser(laser.getX(), laser.getY(), laser.getOrientation());
+                fireLaser();
                 return true;
             }
         }
@@ -727,24 +842,24 @@ public abstract class AbstractGameBoard {
             if(laser.equals(aLaser) && hasTurn)
             {
                 undoMove();
-                update(laser.getX(), laser.getY(), laser.toggleDirection(), -1, -1);
+                update(Move.rotation(state.cell(laser.getX(), laser.getY()), laser.toggleDirection()));
                 return true;
             }
             else if(laser.equals(bLaser) && !hasTurn)
             {
                 undoMove();
-                update(laser.getX(), laser.getY(), laser.toggleDirection(), -1, -1);
+                update(Move.rotation(state.cell(laser.getX(), laser.getY()), laser.toggleDirection()));
                 return true;
             }
         }
         else if(laser.equals(aLaser) && (hasTurn ^ flipBoard)) {
             undoMove();
-            update(laser.getX(), laser.getY(), laser.toggleDirection(), -1, -1);
+            update(Move.rotation(state.cell(laser.getX(), laser.getY()), laser.toggleDirection()));
             return true;
         }
         else if(laser.equals(bLaser) && (hasTurn ^ flipBoard)) {
             undoMove();
-            update(laser.getX(), laser.getY(), laser.toggleDirection(), -1, -1);
+            update(Move.rotation(state.cell(laser.getX(), laser.getY()), laser.toggleDirection()));
             return true;
         }
         
@@ -754,40 +869,58 @@ public abstract class AbstractGameBoard {
     /**
      * Left-rotate a selected piece on the board.
      *
-     * @param piece chosen piece to ratate left
+     * @param x the x location of the piece to rotate left
+     * @param y the y location of the piece to rotate left
      * @return true if success
      */
-    private boolean pieceRotateLeft(AbstractGamePiece piece) {
-        if(!LaserGame.IS_SERVER) pieceSound.play();
-        piece.rotateLeft();
+    private boolean pieceRotateLeft(int x, int y) {
+        state.rotate(state.cell(x, y), -1);
+
+        AbstractGamePiece piece = getPieceFromCoordinate(x, y);
+        if(piece != null) {
+            if(!LaserGame.IS_SERVER) pieceSound.play();
+            piece.rotateLeft();
+        }
         return true;
     }
 
     /**
      * Right-rotate a selected piece on the board.
      *
-     * @param piece chosen piece to ratate right, matches pID
+     * @param x the x location of the piece to rotate right
+     * @param y the y location of the piece to rotate right
      * @return true if success
      */
-    private boolean pieceRotateRight(AbstractGamePiece piece) {
-        if(!LaserGame.IS_SERVER) pieceSound.play();
-        piece.rotateRight();
+    private boolean pieceRotateRight(int x, int y) {
+        state.rotate(state.cell(x, y), 1);
+
+        AbstractGamePiece piece = getPieceFromCoordinate(x, y);
+        if(piece != null) {
+            if(!LaserGame.IS_SERVER) pieceSound.play();
+            piece.rotateRight();
+        }
         return true;
     }
 
     /**
      * Move a selected piece on the board.
      *
-     * @param piece chosen piece to move, matches pID
-     * @param x new x location
-     * @param y new y location
+     * @param x the x location of the piece to move
+     * @param y the y location of the piece to move
+     * @param nX new x location
+     * @param nY new y location
      * @return true if success
      */
-    private boolean pieceMove(AbstractGamePiece piece, int x, int y) {
-        piece.pickUpPiece(this);
-        piece.setX(x);
-        piece.setY(y);
-        piece.placePiece(this);
+    private boolean pieceMove(int x, int y, int nX, int nY) {
+        state.move(state.cell(x, y), state.cell(nX, nY));
+
+        AbstractGamePiece piece = getPieceFromCoordinate(x, y);
+        if(piece != null) {
+            piece.pickUpPiece(this);
+            piece.setX(nX);
+            piece.setY(nY);
+            piece.placePiece(this);
+        }
         return true;
     }
 
@@ -795,132 +928,158 @@ public abstract class AbstractGameBoard {
      * Check whether the movement of a player on a piece is valid.
      *
      * @param color the identifier of the player that has the turn
-     * @param x the x position of the piece
-     * @param y the y position of the piece
-     * @param moveType the type of the move
-     * @param nX the x position of the desination
-     * @param nY the y position of the destination
+     * @param move the move code, as described in {@link Move}
      * @return whether the move is valid or not
      */
-    public boolean isValidMove(boolean color, int x, int y, String moveType, int nX, int nY) {
-        AbstractGamePiece piece = getPieceFromCoordinate(x,y);
-        if(piece==null) return false;
-        if(piece.getColor() != color) return false;
+    public boolean isValidMove(boolean color, int move) {
+        return state.isLegalMove(color, move);
+    }
 
-        if(moveType.equals("rotateL") || moveType.equals("rotateR")) {
-            return true;
-        } else if(moveType.equals("move")) {
-            if (getTileFromCoordinate(nX, nY) != null && getPieceFromCoordinate(nX, nY) == null) {
-                AbstractBoardTile tile = getTileFromCoordinate(nX, nY);
-                Array<AbstractBoardTile> candidates = piece.getLegalMoves(this);
-                for (AbstractBoardTile t : candidates) {
-                    if (tile == t) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+    /**
+     * Writes every legal move of a player into a buffer.
+     *
+     * @param color the player to generate moves for
+     * @param moves the buffer to fill, which should hold at least {@link Move#MAX_MOVES} moves
+     * @return the number of moves written
+     */
+    public int generateMoves(boolean color, int[] moves) {
+        return state.generateMoves(color, moves, 0);
     }
 
     /**
-     * Handles the logic and rendering of a laser being fired into a tile.
+     * Handles the logic and rendering of the laser of the side to move being fired, then passes the turn.
      *
-     * @param startX the X-coordinate of the tile into which the laser is being fired
-     * @param startY the Y-coordinate of the tile into which the laser is being fired
-     * @param d the direction in which the laser is being fired into the tile
+     * @return the trace of the fired laser, which is reused by the next call
      */
-    public void fireLaser(int startX, int startY, Directions.Direction d) {
-        laserHelper(startX, startY, d);
+    public LaserTrace fireLaser() {
+        // only a board that is rendered needs the path of the laser
+        laserTrace.setRecordSegments(pieces != null);
+        state.fireLaser(nextMove == null ? Move.NONE : nextMove.move, laserTrace);
+        laserDuration = System.currentTimeMillis();
+
+        for(int i = 0; i < laserTrace.getDestroyedCount(); i++)
+            destroyPiece(laserTrace.getDestroyed(i));
+
         nextMove = null;
         hasTurn = !hasTurn;
+        return laserTrace;
     }
 
     /**
-     * A recursive fucntion for drawing the laser onto the board.
-     * @param startX the x coordinate of the starting point of laser
-     * @param startY the y coordinate of the starting point of laser
-     * @param d the direction of the laser that is to be drawn
+     * Takes back the last turn played on this board: the pieces destroyed by its laser return and its move is
+     * reverted. A move that has been made but not fired is reverted first.
+     *
+     * @return false if there is no turn to take back
      */
-    private void laserHelper(int startX, int startY, Directions.Direction d)
+    public boolean undoTurn()
     {
-        laserDuration = System.currentTimeMillis();
-    
-        if (startX < 0 || startY < 0 || startX >= x || startY >= y) return;
-    
-        AbstractGamePiece thisPiece = pieces.get(startY * x + startX);
-        AbstractBoardTile thisTile = tiles.get(startY * x + startX);
-    
-        if(thisPiece == null)
+        undoMove();
+        pickedUpPiece = null;
+        if(state.getTurnCount() == 0) return false;
+
+        int destroyed = state.getLastCaptureCount();
+        int move = state.unfireLaser();
+        if(pieces != null)
         {
-            drawLaser(startX, startY, d);
-            startX += (d == Directions.Direction.EAST ? 1 : 0) + (d == Directions.Direction.WEST ? -1 : 0);
-            startY += (d == Directions.Direction.NORTH ? 1 : 0) + (d == Directions.Direction.SOUTH ? -1 : 0);
-            laserHelper(startX, startY, d);
-            return;
+            for(int i = 0; i < destroyed; i++)
+                restorePiece(destroyedPieces.pop());
         }
-    
-        Array<Directions.Direction> newDirections = thisPiece.acceptLaser(d);
-    
-        if(newDirections == null)
+        isOver = !state.hasKing(true) || !state.hasKing(false);
+        hasTurn = !hasTurn;
+
+        if(move != Move.NONE)
         {
-            // destroy the piece
-            if(aPharaoh.equals(pieces.get(startY * x + startX)))
-            {
-                if(!LaserGame.IS_SERVER) kingDestroyedSound.play();
-                aPharaoh = null;
-                isOver = true;
-            }
-            else if(bPharaoh.equals(pieces.get(startY * x + startX)))
-            {
-                if(!LaserGame.IS_SERVER) kingDestroyedSound.play();
-                bPharaoh = null;
-                isOver = true;
-            }
-            else
-                if (!LaserGame.IS_SERVER) pieceDestroyedSound.play();
-            
-            pieces.set(startY * x + startX, null);
-        
-            thisTile.setPiece(null);
-            thisTile.onPieceDestroyed(thisPiece);
-            return;
+            nextMove = new GameMessage(GameMessage.messageType.PLAYER_MOVE);
+            nextMove.move = move;
+            undoMove();
         }
-    
-        for(Directions.Direction dir : newDirections)
+        return true;
+    }
+
+    /**
+     * Removes the piece object of a piece destroyed by a laser from the board. The board state has already
+     * removed the piece itself.
+     *
+     * @param destroyed the destroyed piece, packed as described in {@link LaserTrace#pack}
+     */
+    private void destroyPiece(int destroyed)
+    {
+        int cell = LaserTrace.cellOf(destroyed);
+        boolean isKing = LaserTrace.kindOf(destroyed) == BoardState.KING;
+        if(isKing)
+            isOver = true;
+
+        AbstractGamePiece thisPiece = pieces == null ? null : pieces.get(cell);
+        if(thisPiece == null) return;
+        destroyedPieces.add(thisPiece);
+
+        if(isKing)
         {
-            //reflect the lasers
-            drawLaser(startX, startY, dir);
-            int newX = startX + (dir == Directions.Direction.EAST ? 1 : 0) + (dir == Directions.Direction.WEST ? -1 : 0);
-            int newY = startY + (dir == Directions.Direction.NORTH ? 1 : 0) + (dir == Directions.Direction.SOUTH ? -1 : 0);
-            laserHelper(newX, newY, dir);
+            if(!LaserGame.IS_SERVER) kingDestroyedSound.play();
+            if(thisPiece == aPharaoh) aPharaoh = null;
+            else bPharaoh = null;
         }
+        else
+            if (!LaserGame.IS_SERVER) pieceDestroyedSound.play();
+
+        pieces.set(cell, null);
+
+        AbstractBoardTile thisTile = tiles.get(cell);
+        thisTile.setPiece(null);
+        thisTile.onPieceDestroyed(thisPiece);
     }
 
     /**
-     * Helper function for <code>fireLaser()</code>
+     * Puts the piece object of a piece destroyed by a laser back on the board.
      *
-     * @param startX the X-coordinate of the tile into which the laser is being fired
-     * @param startY the Y-coordinate of the tile into which the laser is being fired
-     * @param d the direction in which the laser is being fired into the tile
+     * @param piece the destroyed piece
      */
-    private void drawLaser(int startX, int startY, Directions.Direction d)
+    private void restorePiece(AbstractGamePiece piece)
     {
-        if(d == Directions.Direction.NORTH)
-            lasersToDraw.add(new Rectangle(screenX + startX * tileDim + tileDim / 2F - 5,
-                                        screenY + startY * tileDim + tileDim / 2F,
-                                    10, tileDim));
-        else if(d == Directions.Direction.SOUTH)
-            lasersToDraw.add(new Rectangle(screenX + startX * tileDim + tileDim / 2F - 5,
-                                        screenY + startY * tileDim - tileDim / 2F,
-                                    10, tileDim));
-        else if(d == Directions.Direction.EAST)
-            lasersToDraw.add(new Rectangle(screenX + startX * tileDim + tileDim / 2F,
-                                        screenY + startY * tileDim + tileDim / 2F - 5,
-                                        tileDim, 10));
-        else if(d == Directions.Direction.WEST)
-            lasersToDraw.add(new Rectangle(screenX + startX * tileDim - tileDim / 2F,
-                                        screenY + startY * tileDim + tileDim / 2F - 5,
-                                            tileDim, 10));
+        int cell = state.cell(piece.getX(), piece.getY());
+        pieces.set(cell, piece);
+        tiles.get(cell).setPiece(piece);
+
+        if(piece instanceof KingPiece)
+        {
+            if(piece.getColor()) aPharaoh = (KingPiece) piece;
+            else bPharaoh = (KingPiece) piece;
+        }
+    }
+
+    /**
+     * Draws one segment of a laser, from the center of a tile to the center of its neighbour.
+     *
+     * @param sb the {@link SpriteBatch} responsible for drawing game objects
+     * @param cell the cell in which the segment starts
+     * @param d the direction of the segment
+     */
+    private void drawLaser(SpriteBatch sb, int cell, Directions.Direction d)
+    {
+        float drawX = screenX + state.cellX(cell) * tileDim + tileDim / 2F;
+        float drawY = screenY + state.cellY(cell) * tileDim + tileDim / 2F;
+        float width = 10;
+        float height = 10;
+
+        if(d == Directions.Direction.NORTH || d == Directions.Direction.SOUTH)
+        {
+            drawX -= 5;
+            height = tileDim;
+            if(d == Directions.Direction.SOUTH) drawY -= tileDim;
+        }
+        else
+        {
+            drawY -= 5;
+            width = tileDim;
+            if(d == Directions.Direction.WEST) drawX -= tileDim;
+        }
+
+        if(flipBoard)
+        {
+            drawX = Gdx.graphics.getWidth() - drawX - width;
+            drawY = Gdx.graphics.getHeight() - drawY - height;
+        }
+
+        sb.draw(width > height ? horizontalLaserTexture : verticalLaserTexture, drawX, drawY, width, height);
     }
 }
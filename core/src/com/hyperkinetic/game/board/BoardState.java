@@ -0,0 +1,663 @@
+package com.hyperkinetic.game.board;
+
+import java.util.Arrays;
+
+/**
+ * A compact description of a laser game position that can be validated and searched without building any
+ * piece or tile objects. Every property of the position is kept as a bit plane holding one bit per cell, and
+ * each plane is split across two longs so that boards of up to 128 cells are supported.
+ *
+ * Cells are numbered row-major from the lower left corner (<code>cell = y * width + x</code>), the same layout
+ * used by the pieces array of {@link AbstractGameBoard}. Orientations are stored as the number of clockwise
+ * quarter turns from the rest position of the piece (north for block pieces, northwest for mirror pieces).
+ */
+public class BoardState
+{
+    /**
+     * Piece kind of the KingPiece.
+     */
+    public static final int KING = 0;
+    /**
+     * Piece kind of the LaserPiece.
+     */
+    public static final int LASER = 1;
+    /**
+     * Piece kind of the GuardianPiece.
+     */
+    public static final int GUARDIAN = 2;
+    /**
+     * Piece kind of the SingleMirrorPiece.
+     */
+    public static final int SINGLE_MIRROR = 3;
+    /**
+     * Piece kind of the DoubleMirrorPiece.
+     */
+    public static final int DOUBLE_MIRROR = 4;
+    /**
+     * Number of piece kinds.
+     */
+    public static final int KIND_COUNT = 5;
+    /**
+     * Returned in place of a piece kind or a cell when there is none.
+     */
+    public static final int EMPTY = -1;
+    /**
+     * Largest number of cells that fit in a bit plane.
+     */
+    public static final int MAX_CELLS = 128;
+    /**
+     * Letters of the piece kinds in the text form of a position, indexed by kind.
+     */
+    public static final String PIECE_LETTERS = "KLGSD";
+
+    /**
+     * Indices of the bit planes, each of which occupies two consecutive longs.
+     */
+    private static final int WHITE_PLANE = 0;
+    private static final int BLACK_PLANE = 1;
+    private static final int KIND_PLANE = 2;
+    private static final int ORIENTATION_PLANE = KIND_PLANE + KIND_COUNT;
+    private static final int PLANE_COUNT = ORIENTATION_PLANE + 2;
+
+    /**
+     * X-dimension of the board.
+     */
+    private int width;
+    /**
+     * Y-dimension of the board.
+     */
+    private int height;
+    /**
+     * The bit planes of the position: colour, piece kind and the two orientation bits.
+     */
+    private long[] planes;
+    /**
+     * True if white (player A) is the side to move.
+     */
+    private boolean whiteToMove;
+    /**
+     * The Zobrist key of the position, kept up to date by every change to it. See {@link Zobrist}.
+     */
+    private long key;
+
+    /**
+     * Undo records of the turns made by {@link #fireLaser}, oldest first. A turn is recorded as the pieces its
+     * laser destroyed, packed by {@link LaserTrace#pack}, followed by a header holding the move in the low 16 bits
+     * and the number of destroyed pieces above them.
+     */
+    private transient int[] history;
+    private transient int historySize;
+    /**
+     * Number of turns in {@link #history}.
+     */
+    private transient int turnCount;
+
+    public BoardState(int width, int height)
+    {
+        if(width <= 0 || height <= 0 || width * height > MAX_CELLS)
+            throw new IllegalArgumentException("Unsupported board size " + width + "x" + height);
+
+        this.width = width;
+        this.height = height;
+        planes = new long[PLANE_COUNT * 2];
+        whiteToMove = true;
+        history = new int[64];
+    }
+
+    public BoardState(BoardState other)
+    {
+        this(other.width, other.height);
+        set(other);
+    }
+
+    public BoardState()
+    {
+        this(10, 8);
+    }
+
+    /**
+     * Overwrites this position with a copy of another one of the same dimensions. The turn history is not copied.
+     *
+     * @param other the position to copy
+     */
+    public void set(BoardState other)
+    {
+        if(other.width != width || other.height != height)
+            throw new IllegalArgumentException("Board sizes differ");
+
+        System.arraycopy(other.planes, 0, planes, 0, planes.length);
+        whiteToMove = other.whiteToMove;
+        key = other.key;
+        historySize = 0;
+        turnCount = 0;
+    }
+
+    /**
+     * Removes every piece from the board, gives the move to white and forgets the turn history.
+     */
+    public void clear()
+    {
+        Arrays.fill(planes, 0L);
+        whiteToMove = true;
+        key = 0L;
+        historySize = 0;
+        turnCount = 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellCount() {
+        return width * height;
+    }
+
+    /**
+     * Converts a coordinate to a cell index.
+     */
+    public int cell(int x, int y) {
+        return y * width + x;
+    }
+
+    public int cellX(int cell) {
+        return cell % width;
+    }
+
+    public int cellY(int cell) {
+        return cell / width;
+    }
+
+    /**
+     * Checks whether a coordinate lies on the board.
+     */
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public boolean isWhiteToMove() {
+        return whiteToMove;
+    }
+
+    public void setWhiteToMove(boolean whiteToMove)
+    {
+        if(this.whiteToMove != whiteToMove) switchSide();
+    }
+
+    /**
+     * Passes the move to the other side.
+     */
+    public void switchSide()
+    {
+        whiteToMove = !whiteToMove;
+        key ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    /**
+     * @return the Zobrist key of the position, which identifies it up to hash collisions
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Computes the Zobrist key of the position from scratch. It always equals {@link #getKey()}; this is meant for
+     * checking the incremental updates.
+     *
+     * @return the Zobrist key of the position
+     */
+    public long computeKey()
+    {
+        long retval = whiteToMove ? 0L : Zobrist.BLACK_TO_MOVE;
+        for(int cell = 0; cell < getCellCount(); cell++)
+            if(isOccupied(cell))
+                retval ^= Zobrist.piece(cell, getKind(cell), isWhite(cell), getOrientation(cell));
+        return retval;
+    }
+
+    /**
+     * @return true if a piece occupies the cell
+     */
+    public boolean isOccupied(int cell)
+    {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        return ((planes[(WHITE_PLANE << 1) + word] | planes[(BLACK_PLANE << 1) + word]) & bit) != 0;
+    }
+
+    /**
+     * @return true if the piece on the cell belongs to white; false if it is black or the cell is empty
+     */
+    public boolean isWhite(int cell) {
+        return test(WHITE_PLANE, cell);
+    }
+
+    /**
+     * @return the kind of the piece on the cell, or {@link #EMPTY}
+     */
+    public int getKind(int cell)
+    {
+        if(!isOccupied(cell)) return EMPTY;
+        for(int kind = 0; kind < KIND_COUNT; kind++)
+            if(test(KIND_PLANE + kind, cell)) return kind;
+        return EMPTY;
+    }
+
+    /**
+     * @return the orientation of the piece on the cell in clockwise quarter turns
+     */
+    public int getOrientation(int cell) {
+        return (test(ORIENTATION_PLANE, cell) ? 1 : 0) | (test(ORIENTATION_PLANE + 1, cell) ? 2 : 0);
+    }
+
+    /**
+     * Puts a piece on an empty cell.
+     *
+     * @param cell the cell to fill
+     * @param kind the kind of the piece
+     * @param white the colour of the piece
+     * @param orientation the orientation of the piece in clockwise quarter turns
+     */
+    public void place(int cell, int kind, boolean white, int orientation)
+    {
+        assign(white ? WHITE_PLANE : BLACK_PLANE, cell, true);
+        assign(KIND_PLANE + kind, cell, true);
+        assign(ORIENTATION_PLANE, cell, (orientation & 1) != 0);
+        assign(ORIENTATION_PLANE + 1, cell, (orientation & 2) != 0);
+        key ^= Zobrist.piece(cell, kind, white, orientation & 3);
+    }
+
+    /**
+     * Clears a cell.
+     */
+    public void remove(int cell)
+    {
+        if(!isOccupied(cell)) return;
+        key ^= Zobrist.piece(cell, getKind(cell), isWhite(cell), getOrientation(cell));
+        for(int plane = 0; plane < PLANE_COUNT; plane++)
+            assign(plane, cell, false);
+    }
+
+    /**
+     * Moves the piece on one cell to another, empty cell.
+     */
+    public void move(int from, int to)
+    {
+        int kind = getKind(from);
+        boolean white = isWhite(from);
+        int orientation = getOrientation(from);
+        remove(from);
+        place(to, kind, white, orientation);
+    }
+
+    /**
+     * Rotates the piece on a cell.
+     *
+     * @param cell the cell of the piece
+     * @param quarterTurns clockwise quarter turns to apply; negative values rotate counterclockwise
+     */
+    public void rotate(int cell, int quarterTurns)
+    {
+        int kind = getKind(cell);
+        boolean white = isWhite(cell);
+        int previous = getOrientation(cell);
+        int orientation = (previous + quarterTurns) & 3;
+        key ^= Zobrist.piece(cell, kind, white, previous) ^ Zobrist.piece(cell, kind, white, orientation);
+        assign(ORIENTATION_PLANE, cell, (orientation & 1) != 0);
+        assign(ORIENTATION_PLANE + 1, cell, (orientation & 2) != 0);
+    }
+
+    /**
+     * Applies a move without recording it. The move is assumed to be legal.
+     *
+     * @param move the move code
+     */
+    public void makeMove(int move)
+    {
+        if(Move.isRotation(move)) rotate(Move.from(move), Move.quarterTurns(move));
+        else move(Move.from(move), Move.to(move));
+    }
+
+    /**
+     * Reverts a move applied by {@link #makeMove}.
+     *
+     * @param move the move code
+     */
+    public void unmakeMove(int move)
+    {
+        if(Move.isRotation(move)) rotate(Move.from(move), -Move.quarterTurns(move));
+        else move(Move.to(move), Move.from(move));
+    }
+
+    /**
+     * Plays a full turn: applies a move, fires the laser of the side to move and passes the turn. The turn can be
+     * taken back with {@link #unmakeTurn}.
+     *
+     * @param move a legal move of the side to move
+     * @param trace receives the path and result of the laser
+     */
+    public void makeTurn(int move, LaserTrace trace)
+    {
+        makeMove(move);
+        fireLaser(move, trace);
+    }
+
+    /**
+     * Takes back the last turn played by {@link #makeTurn}.
+     *
+     * @return the move of the turn
+     */
+    public int unmakeTurn()
+    {
+        int move = unfireLaser();
+        unmakeMove(move);
+        return move;
+    }
+
+    /**
+     * Finishes a turn whose move has already been applied: fires the laser of the side to move, removes the
+     * pieces it destroys, records the turn and passes the turn to the other side.
+     *
+     * @param move the move already made this turn
+     * @param trace receives the path and result of the laser
+     */
+    public void fireLaser(int move, LaserTrace trace)
+    {
+        trace.fire(this, whiteToMove);
+        int destroyed = trace.getDestroyedCount();
+
+        if(historySize + destroyed + 1 > history.length)
+            history = Arrays.copyOf(history, Math.max(history.length * 2, historySize + destroyed + 1));
+
+        for(int i = 0; i < destroyed; i++)
+        {
+            int piece = trace.getDestroyed(i);
+            remove(LaserTrace.cellOf(piece));
+            history[historySize++] = piece;
+        }
+        history[historySize++] = (move & 0xFFFF) | destroyed << 16;
+        turnCount++;
+        switchSide();
+    }
+
+    /**
+     * Takes back the laser of the last recorded turn: restores the pieces it destroyed and gives the turn back.
+     * The move of the turn stays on the board.
+     *
+     * @return the move of the turn
+     */
+    public int unfireLaser()
+    {
+        if(turnCount == 0) throw new IllegalStateException("No turn to take back");
+
+        int header = history[--historySize];
+        for(int i = header >>> 16; i > 0; i--)
+        {
+            int piece = history[--historySize];
+            place(LaserTrace.cellOf(piece), LaserTrace.kindOf(piece), LaserTrace.isWhite(piece),
+                    LaserTrace.orientationOf(piece));
+        }
+        turnCount--;
+        switchSide();
+
+        int move = header & 0xFFFF;
+        return move == 0xFFFF ? Move.NONE : move;
+    }
+
+    /**
+     * @return the number of turns that can be taken back
+     */
+    public int getTurnCount() {
+        return turnCount;
+    }
+
+    /**
+     * @return the number of pieces destroyed by the laser of the last recorded turn
+     */
+    public int getLastCaptureCount() {
+        return turnCount == 0 ? 0 : history[historySize - 1] >>> 16;
+    }
+
+    /**
+     * Finds the first cell holding a piece of the given kind and colour.
+     *
+     * @return the cell, or {@link #EMPTY} if there is no such piece
+     */
+    public int findPiece(int kind, boolean white)
+    {
+        int colour = (white ? WHITE_PLANE : BLACK_PLANE) << 1;
+        int plane = (KIND_PLANE + kind) << 1;
+
+        long low = planes[colour] & planes[plane];
+        if(low != 0) return Long.numberOfTrailingZeros(low);
+        long high = planes[colour + 1] & planes[plane + 1];
+        if(high != 0) return 64 + Long.numberOfTrailingZeros(high);
+        return EMPTY;
+    }
+
+    /**
+     * @return whether the given side still has its KingPiece
+     */
+    public boolean hasKing(boolean white) {
+        return findPiece(KING, white) != EMPTY;
+    }
+
+    /**
+     * @return the number of pieces of one colour
+     */
+    public int countPieces(boolean white)
+    {
+        int colour = (white ? WHITE_PLANE : BLACK_PLANE) << 1;
+        return Long.bitCount(planes[colour]) + Long.bitCount(planes[colour + 1]);
+    }
+
+    /**
+     * @return the number of pieces of one kind and colour
+     */
+    public int countPieces(int kind, boolean white)
+    {
+        int colour = (white ? WHITE_PLANE : BLACK_PLANE) << 1;
+        int plane = (KIND_PLANE + kind) << 1;
+        return Long.bitCount(planes[colour] & planes[plane]) + Long.bitCount(planes[colour + 1] & planes[plane + 1]);
+    }
+
+    /**
+     * Writes every legal move of one side into a buffer. Every piece but the LaserPiece may step onto an empty
+     * neighbouring tile or rotate either way; the LaserPiece can only toggle between its two firing directions.
+     *
+     * @param white the side to generate moves for
+     * @param moves the buffer to fill, see {@link Move#MAX_MOVES}
+     * @param offset the index of the first move written
+     * @return the number of moves written
+     */
+    public int generateMoves(boolean white, int[] moves, int offset)
+    {
+        int count = offset;
+        int colour = (white ? WHITE_PLANE : BLACK_PLANE) << 1;
+
+        for(int word = 0; word < 2; word++)
+        {
+            long own = planes[colour + word];
+            while(own != 0)
+            {
+                int cell = (word << 6) + Long.numberOfTrailingZeros(own);
+                own &= own - 1;
+
+                if(test(KIND_PLANE + LASER, cell))
+                {
+                    moves[count++] = Move.rotation(cell, laserToggle(cell));
+                    continue;
+                }
+
+                moves[count++] = Move.rotation(cell, Move.ROTATE_LEFT);
+                moves[count++] = Move.rotation(cell, Move.ROTATE_RIGHT);
+
+                int x = cellX(cell);
+                int y = cellY(cell);
+                for(int nY = y - 1; nY <= y + 1; nY++)
+                {
+                    for(int nX = x - 1; nX <= x + 1; nX++)
+                    {
+                        if(!contains(nX, nY) || (nX == x && nY == y)) continue;
+                        int to = cell(nX, nY);
+                        if(!isOccupied(to)) moves[count++] = Move.encode(cell, to, Move.STEP);
+                    }
+                }
+            }
+        }
+        return count - offset;
+    }
+
+    /**
+     * Checks whether a move is legal for one side, following the same rules as {@link #generateMoves}.
+     *
+     * @param white the side making the move
+     * @param move the move code
+     * @return whether the move is legal
+     */
+    public boolean isLegalMove(boolean white, int move)
+    {
+        if(move == Move.NONE) return false;
+
+        int from = Move.from(move);
+        int to = Move.to(move);
+        if(from >= getCellCount() || to >= getCellCount()) return false;
+        if(!isOccupied(from) || isWhite(from) != white) return false;
+
+        boolean laser = test(KIND_PLANE + LASER, from);
+        switch(Move.type(move))
+        {
+            case Move.ROTATE_LEFT:
+            case Move.ROTATE_RIGHT:
+                return from == to && (!laser || Move.type(move) == laserToggle(from));
+            case Move.STEP:
+                // legal destinations are the empty tiles next to the piece
+                return !laser && from != to && !isOccupied(to) &&
+                        Math.abs(cellX(to) - cellX(from)) <= 1 && Math.abs(cellY(to) - cellY(from)) <= 1;
+        }
+        return false;
+    }
+
+    /**
+     * A LaserPiece toggles between firing from its rest direction (north for white, south for black) and the
+     * direction a quarter turn counterclockwise from it.
+     *
+     * @return the rotation that toggles the LaserPiece on a cell
+     */
+    private int laserToggle(int cell) {
+        return getOrientation(cell) == (isWhite(cell) ? 0 : 2) ? Move.ROTATE_LEFT : Move.ROTATE_RIGHT;
+    }
+
+    private boolean test(int plane, int cell) {
+        return (planes[(plane << 1) + (cell >>> 6)] & (1L << cell)) != 0;
+    }
+
+    private void assign(int plane, int cell, boolean value)
+    {
+        int index = (plane << 1) + (cell >>> 6);
+        if(value) planes[index] |= 1L << cell;
+        else planes[index] &= ~(1L << cell);
+    }
+
+    /**
+     * Describes the position as text: the rows from the top of the board down, separated by '/', then the side to
+     * move, 'w' or 'b'. An empty cell is written '.', and a piece as a letter (K king, L laser, G guardian, S single
+     * mirror, D double mirror; upper case for white, lower case for black) followed by its orientation, 0 to 3.
+     *
+     * @return the position, which {@link #fromText} reads back
+     */
+    public String toText()
+    {
+        StringBuilder sb = new StringBuilder();
+        for(int y = height - 1; y >= 0; y--)
+        {
+            for(int x = 0; x < width; x++)
+            {
+                int cell = cell(x, y);
+                int kind = getKind(cell);
+                if(kind == EMPTY)
+                {
+                    sb.append('.');
+                    continue;
+                }
+                char letter = PIECE_LETTERS.charAt(kind);
+                sb.append(isWhite(cell) ? letter : Character.toLowerCase(letter)).append(getOrientation(cell));
+            }
+            sb.append(y > 0 ? '/' : ' ');
+        }
+        return sb.append(whiteToMove ? 'w' : 'b').toString();
+    }
+
+    /**
+     * Reads a position written by {@link #toText}.
+     *
+     * @param text the position
+     * @return the position, with an empty turn history
+     * @throws IllegalArgumentException if the text is not a position
+     */
+    public static BoardState fromText(String text)
+    {
+        String[] parts = text.trim().split("\\s+");
+        if(parts.length != 2 || !(parts[1].equals("w") || parts[1].equals("b")))
+            throw new IllegalArgumentException("Expected rows and a side to move: " + text);
+
+        String[] rows = parts[0].split("/");
+        int[][] kinds = new int[rows.length][];
+        int width = -1;
+        for(int i = 0; i < rows.length; i++)
+        {
+            String row = rows[i];
+            int[] cells = new int[row.length()];
+            int count = 0;
+            for(int c = 0; c < row.length(); c++)
+            {
+                char letter = row.charAt(c);
+                if(letter == '.')
+                {
+                    cells[count++] = -1;
+                    continue;
+                }
+                int kind = PIECE_LETTERS.indexOf(Character.toUpperCase(letter));
+                if(kind < 0 || c + 1 >= row.length() || row.charAt(c + 1) < '0' || row.charAt(c + 1) > '3')
+                    throw new IllegalArgumentException("Bad piece at " + row.substring(c));
+                c++;
+                // kind, colour and orientation packed together for the second pass
+                cells[count++] = kind << 3 | (Character.isUpperCase(letter) ? 4 : 0) | row.charAt(c) - '0';
+            }
+            if(width >= 0 && count != width) throw new IllegalArgumentException("Rows differ in length: " + text);
+            width = count;
+            kinds[i] = Arrays.copyOf(cells, count);
+        }
+        if(width * rows.length > MAX_CELLS) throw new IllegalArgumentException("Board too large: " + text);
+
+        BoardState retval = new BoardState(width, rows.length);
+        for(int i = 0; i < rows.length; i++)
+        {
+            int y = rows.length - 1 - i;
+            for(int x = 0; x < width; x++)
+            {
+                int packed = kinds[i][x];
+                if(packed >= 0) retval.place(retval.cell(x, y), packed >> 3, (packed & 4) != 0, packed & 3);
+            }
+        }
+        retval.setWhiteToMove(parts[1].equals("w"));
+        return retval;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if(!(other instanceof BoardState)) return false;
+        BoardState o = (BoardState) other;
+        return o.key == key && o.width == width && o.height == height && o.whiteToMove == whiteToMove &&
+                Arrays.equals(o.planes, planes);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,386 @@
+package com.hyperkinetic.game.board;
+
+import com.hyperkinetic.game.util.Directions;
+
+/**
+ * The path and result of one laser shot through a {@link BoardState}. A trace is meant to be reused: every call
+ * to {@link #fire} overwrites the previous result, and the internal arrays only grow when a shot needs more room
+ * than any shot before it.
+ *
+ * Tracing does not change the board state. Pieces destroyed earlier in the same shot are treated as gone, so a
+ * split laser can pass through a cell emptied by the other half of the beam, just like it does on the board.
+ *
+ * Double mirrors can send a beam around a closed loop. Every (cell, direction) pair a beam enters is recorded, and
+ * a beam that enters a pair a second time ends there, since it would only repeat a path already traced. The record
+ * is cleared whenever a piece is destroyed, because the board the beam travels through has changed. This bounds
+ * the work of one shot by {@link #maxSteps}.
+ */
+public class LaserTrace
+{
+    /**
+     * Marks a pending beam that leaves the piece on its cell rather than entering the cell.
+     */
+    private static final int LEAVING = 4;
+
+    /**
+     * Whether laser segments are recorded. The server never draws lasers and can skip them.
+     */
+    private boolean recordSegments;
+
+    /**
+     * The segments of the laser, each packed as <code>cell << 2 | direction ordinal</code>. A segment is drawn
+     * from the center of its cell one tile in its direction.
+     */
+    private int[] segments;
+    private int segmentCount;
+
+    /**
+     * The pieces destroyed by the laser, in the order they were hit, packed by {@link #pack}.
+     */
+    private int[] destroyed;
+    private int destroyedCount;
+
+    /**
+     * One bit per (cell, direction) pair entered by a beam since the last piece was destroyed, indexed by
+     * <code>cell << 2 | direction ordinal</code>.
+     */
+    private long[] visited;
+    /**
+     * One bit per cell the laser passed through or stopped in, including the cell of the firing LaserPiece.
+     * Changing the occupant of any other cell cannot change the shot. A beam traced by {@link #fireFrom} only
+     * includes the cell it starts from if it comes back to it.
+     */
+    private final long[] path;
+    /**
+     * One bit per (cell, direction) pair entered by a beam during the whole shot, indexed like {@link #visited}.
+     */
+    private final long[] entered;
+    /**
+     * Number of cells entered by the last shot.
+     */
+    private int steps;
+    /**
+     * Number of beams of the last shot that were ended because they repeated a path.
+     */
+    private int loops;
+
+    /**
+     * Beams waiting to be followed, each packed as <code>cell << 3 | LEAVING | direction ordinal</code>.
+     */
+    private int[] pending;
+    private int pendingCount;
+
+    public LaserTrace()
+    {
+        recordSegments = true;
+        segments = new int[64];
+        destroyed = new int[4];
+        pending = new int[8];
+        visited = new long[BoardState.MAX_CELLS * 4 / 64];
+        path = new long[BoardState.MAX_CELLS / 64];
+        entered = new long[BoardState.MAX_CELLS * 4 / 64];
+    }
+
+    public void setRecordSegments(boolean recordSegments) {
+        this.recordSegments = recordSegments;
+    }
+
+    /**
+     * Traces the laser of one side through a board state.
+     *
+     * @param state the position to fire the laser in
+     * @param white the side whose LaserPiece fires
+     * @return this trace
+     */
+    public LaserTrace fire(BoardState state, boolean white)
+    {
+        reset(state);
+
+        int laser = state.findPiece(BoardState.LASER, white);
+        if(laser == BoardState.EMPTY) return this;
+
+        push(laser << 3 | Directions.toDirection(state.getOrientation(laser)).ordinal());
+        follow(state);
+        return this;
+    }
+
+    /**
+     * Traces a beam leaving a cell in a given direction, as if a piece on that cell had sent it there. The piece
+     * on the cell itself is ignored unless the beam comes back to it.
+     *
+     * @param state the position to trace the beam in
+     * @param cell the cell the beam leaves
+     * @param dir the ordinal of the {@link Directions.Direction} of the beam
+     * @return this trace
+     */
+    public LaserTrace fireFrom(BoardState state, int cell, int dir)
+    {
+        reset(state);
+        push(cell << 3 | LEAVING | dir);
+        follow(state);
+        return this;
+    }
+
+    private void reset(BoardState state)
+    {
+        segmentCount = 0;
+        destroyedCount = 0;
+        pendingCount = 0;
+        steps = 0;
+        loops = 0;
+        clearVisited(state);
+        path[0] = 0L;
+        path[1] = 0L;
+        int words = (state.getCellCount() * 4 + 63) >>> 6;
+        for(int i = 0; i < words; i++)
+            entered[i] = 0L;
+    }
+
+    /**
+     * Follows the pending beams until every one of them has left the board, been stopped or entered a loop.
+     */
+    private void follow(BoardState state)
+    {
+        int width = state.getWidth();
+        int height = state.getHeight();
+
+        while(pendingCount > 0)
+        {
+            int beam = pending[--pendingCount];
+            int cell = beam >>> 3;
+            int dir = beam & 3;
+            int x = cell % width;
+            int y = cell / width;
+
+            // beams leaving a piece start with the segment drawn out of the piece's own cell
+            if((beam & LEAVING) != 0)
+            {
+                addSegment(cell, dir);
+                x += Directions.X_STEP[dir];
+                y += Directions.Y_STEP[dir];
+            }
+
+            while(x >= 0 && y >= 0 && x < width && y < height)
+            {
+                cell = y * width + x;
+                steps++;
+                path[cell >>> 6] |= 1L << cell;
+
+                int index = cell << 2 | dir;
+                entered[index >>> 6] |= 1L << index;
+                if((visited[index >>> 6] & (1L << index)) != 0)
+                {
+                    loops++;
+                    break;
+                }
+                visited[index >>> 6] |= 1L << index;
+
+                int kind = isDestroyed(cell) ? BoardState.EMPTY : state.getKind(cell);
+
+                if(kind == BoardState.EMPTY)
+                {
+                    addSegment(cell, dir);
+                    x += Directions.X_STEP[dir];
+                    y += Directions.Y_STEP[dir];
+                    continue;
+                }
+
+                int outgoing = Directions.outgoing(kind, state.getOrientation(cell), dir);
+                if(outgoing == Directions.DESTROYED)
+                {
+                    addDestroyed(pack(cell, kind, state.isWhite(cell), state.getOrientation(cell)));
+                    clearVisited(state);
+                }
+
+                // follow the reflected lasers first and the laser passing straight through last
+                else if(outgoing != Directions.ABSORBED)
+                {
+                    int passThrough = outgoing & (1 << dir);
+                    if(passThrough != 0) push(cell << 3 | LEAVING | dir);
+                    for(int bit = 3; bit >= 0; bit--)
+                        if(bit != dir && (outgoing & (1 << bit)) != 0) push(cell << 3 | LEAVING | bit);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of cells entered by beams of the last shot
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of beams of the last shot that were ended because they entered a loop
+     */
+    public int getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return whether the last shot passed through or stopped in a cell
+     */
+    public boolean isOnPath(int cell) {
+        return (path[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * @param dir the ordinal of a {@link Directions.Direction}
+     * @return whether a beam of the last shot entered a cell travelling in a direction
+     */
+    public boolean isEntered(int cell, int dir)
+    {
+        int index = cell << 2 | dir;
+        return (entered[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param word 0 for cells 0 to 63, 1 for cells 64 to 127
+     * @return one bit per cell of the path of the last shot, see {@link #isOnPath}
+     */
+    public long getPath(int word) {
+        return path[word];
+    }
+
+    /**
+     * Upper bound of {@link #getSteps()} for a shot through a board state. Between two destroyed pieces each
+     * (cell, direction) pair is entered at most once, and every piece but the firing laser can be destroyed.
+     *
+     * @param state the position to fire in
+     * @return the largest number of cells a shot can enter
+     */
+    public static int maxSteps(BoardState state)
+    {
+        int pieces = state.countPieces(true) + state.countPieces(false);
+        return state.getCellCount() * 4 * pieces;
+    }
+
+    /**
+     * @return the number of recorded laser segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return the cell at which a segment starts
+     */
+    public int getSegmentCell(int index) {
+        return segments[index] >>> 2;
+    }
+
+    /**
+     * @return the direction of a segment
+     */
+    public Directions.Direction getSegmentDirection(int index) {
+        return Directions.DIRECTIONS[segments[index] & 3];
+    }
+
+    /**
+     * @return the number of pieces destroyed by the laser
+     */
+    public int getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    /**
+     * @return the packed description of a destroyed piece, see {@link #pack}
+     */
+    public int getDestroyed(int index) {
+        return destroyed[index];
+    }
+
+    /**
+     * @return the cell of the first piece destroyed by the laser, or {@link BoardState#EMPTY} if nothing was hit
+     */
+    public int getHitCell() {
+        return destroyedCount == 0 ? BoardState.EMPTY : cellOf(destroyed[0]);
+    }
+
+    /**
+     * @return whether the laser destroyed a KingPiece of the given colour
+     */
+    public boolean isKingDestroyed(boolean white)
+    {
+        for(int i = 0; i < destroyedCount; i++)
+            if(kindOf(destroyed[i]) == BoardState.KING && isWhite(destroyed[i]) == white) return true;
+        return false;
+    }
+
+    /**
+     * Removes the destroyed pieces from a board state.
+     *
+     * @param state the state the laser was traced through
+     */
+    public void applyTo(BoardState state)
+    {
+        for(int i = 0; i < destroyedCount; i++)
+            state.remove(cellOf(destroyed[i]));
+    }
+
+    /**
+     * Packs a piece into an int: the cell in the low 7 bits, then 3 bits of kind, 1 bit of colour and
+     * 2 bits of orientation.
+     */
+    public static int pack(int cell, int kind, boolean white, int orientation) {
+        return cell | kind << 7 | (white ? 1 << 10 : 0) | orientation << 11;
+    }
+
+    public static int cellOf(int packed) {
+        return packed & 0x7F;
+    }
+
+    public static int kindOf(int packed) {
+        return (packed >>> 7) & 7;
+    }
+
+    public static boolean isWhite(int packed) {
+        return (packed & 1 << 10) != 0;
+    }
+
+    public static int orientationOf(int packed) {
+        return (packed >>> 11) & 3;
+    }
+
+    private void clearVisited(BoardState state)
+    {
+        int words = (state.getCellCount() * 4 + 63) >>> 6;
+        for(int i = 0; i < words; i++)
+            visited[i] = 0L;
+    }
+
+    private boolean isDestroyed(int cell)
+    {
+        for(int i = 0; i < destroyedCount; i++)
+            if(cellOf(destroyed[i]) == cell) return true;
+        return false;
+    }
+
+    private void push(int beam)
+    {
+        if(pendingCount == pending.length) pending = grow(pending);
+        pending[pendingCount++] = beam;
+    }
+
+    private void addSegment(int cell, int dir)
+    {
+        if(!recordSegments) return;
+        if(segmentCount == segments.length) segments = grow(segments);
+        segments[segmentCount++] = cell << 2 | dir;
+    }
+
+    private void addDestroyed(int piece)
+    {
+        if(destroyedCount == destroyed.length) destroyed = grow(destroyed);
+        destroyed[destroyedCount++] = piece;
+    }
+
+    private static int[] grow(int[] array)
+    {
+        int[] retval = new int[array.length * 2];
+        System.arraycopy(array, 0, retval, 0, array.length);
+        return retval;
+    }
+}
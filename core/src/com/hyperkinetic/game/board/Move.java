@@ -0,0 +1,124 @@
+package com.hyperkinetic.game.board;
+
+/**
+ * Utility methods for moves packed into a single int. The low 7 bits hold the cell the piece starts on, the next
+ * 7 bits the cell it ends on and the two bits above those the type of the move. A rotation starts and ends on
+ * the same cell. Cells are numbered as in {@link BoardState}.
+ */
+public class Move
+{
+    /**
+     * Type of a move that steps a piece onto a neighbouring tile.
+     */
+    public static final int STEP = 0;
+    /**
+     * Type of a move that rotates a piece a quarter turn counterclockwise.
+     */
+    public static final int ROTATE_LEFT = 1;
+    /**
+     * Type of a move that rotates a piece a quarter turn clockwise.
+     */
+    public static final int ROTATE_RIGHT = 2;
+
+    /**
+     * A value that is never a legal move.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Size of a move buffer that can hold every legal move of a position.
+     * Each piece has at most 8 steps and 2 rotations.
+     */
+    public static final int MAX_MOVES = BoardState.MAX_CELLS * 10;
+
+    /**
+     * Names of the move types, printed in logs.
+     */
+    private static final String[] TYPE_NAMES = { "move", "rotateL", "rotateR" };
+
+    private Move() {}
+
+    /**
+     * Packs a move into an int.
+     *
+     * @param from the cell of the moved piece
+     * @param to the cell the piece ends on
+     * @param type {@link #STEP}, {@link #ROTATE_LEFT} or {@link #ROTATE_RIGHT}
+     * @return the move code
+     */
+    public static int encode(int from, int to, int type) {
+        return from | to << 7 | type << 14;
+    }
+
+    /**
+     * Packs a rotation into an int.
+     */
+    public static int rotation(int cell, int type) {
+        return encode(cell, cell, type);
+    }
+
+    public static int from(int move) {
+        return move & 0x7F;
+    }
+
+    public static int to(int move) {
+        return (move >>> 7) & 0x7F;
+    }
+
+    public static int type(int move) {
+        return (move >>> 14) & 3;
+    }
+
+    /**
+     * @return whether the move rotates a piece rather than stepping it
+     */
+    public static boolean isRotation(int move) {
+        return type(move) != STEP;
+    }
+
+    /**
+     * @return the clockwise quarter turns applied by a rotation
+     */
+    public static int quarterTurns(int move) {
+        return type(move) == ROTATE_RIGHT ? 1 : -1;
+    }
+
+    /**
+     * @return the name of the type of a move: "move", "rotateL" or "rotateR", or "invalid" for a code no move has,
+     * as a client may send one
+     */
+    public static String typeName(int move)
+    {
+        int type = type(move);
+        return type < TYPE_NAMES.length ? TYPE_NAMES[type] : "invalid";
+    }
+
+    /**
+     * Describes a move by its cells, for logging.
+     *
+     * @param move the move code
+     * @return a description such as "move 2 to 13"
+     */
+    public static String toString(int move)
+    {
+        if(move == NONE) return "none";
+        if(isRotation(move)) return typeName(move) + " " + from(move);
+        return typeName(move) + " " + from(move) + " to " + to(move);
+    }
+
+    /**
+     * Describes a move in board coordinates, for logging.
+     *
+     * @param move the move code
+     * @param width the x-dimension of the board
+     * @return a description such as "move 2,0 to 3,1"
+     */
+    public static String toString(int move, int width)
+    {
+        if(move == NONE) return "none";
+
+        String from = from(move) % width + "," + from(move) / width;
+        if(isRotation(move)) return typeName(move) + " " + from;
+        return typeName(move) + " " + from + " to " + to(move) % width + "," + to(move) / width;
+    }
+}
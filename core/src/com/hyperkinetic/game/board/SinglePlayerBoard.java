@@ -21,14 +21,15 @@ public abstract class SinglePlayerBoard extends AbstractGameBoard
         {
             @Override
             public String getGameState() {
-                if(bPharaoh==null) {
+                if(!state.hasKing(false)) {
                     return "AWin";
-                } else if (aPharaoh==null) {
+                } else if (!state.hasKing(true)) {
                     return "BWin";
                 }
                 return "NoWin";
             }
         };
+        retval.state = board.state;
         retval.pieces = board.pieces;
         retval.tiles = board.tiles;
         retval.aPharaoh = board.aPharaoh;
@@ -1,7 +1,5 @@
 package com.hyperkinetic.game.board;
 
-import com.badlogic.gdx.utils.Array;
-import com.hyperkinetic.game.pieces.*;
 import com.hyperkinetic.game.util.Directions;
 
 /**
@@ -73,85 +71,79 @@ public class StandardBoard extends AbstractGameBoard
 
     @Override
     public void createPieces() {
-        pieces = new Array<>();
-        for(int i = 0; i < x * y; i++)
-            pieces.add(null);
+        state.clear();
 
-        // populate pieces, aPieces, bPieces, place pieces on board, initiate aPharaoh, bPharaoh, aLaser, bLaser
+        // populate the board state with the standard layout
         // i = row, j = column, starting at 0 in the lower left corner
         for(int i = 0 ; i < y; i++)
         {
             for(int j = 0; j < x; j++)
             {
-                AbstractGamePiece newPiece = null;
+                int cell = state.cell(j, i);
                 // add single mirror pieces - white
                 if((i == 0 && j == 2) || (i == 3 && j == 2) || (i == 5 && j == 3) || (i == 4 && j == 9))
-                   newPiece = new SingleMirrorPiece(j, i, true, Directions.MirrorDirection.NORTHWEST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, true, Directions.MirrorDirection.NORTHWEST);
                 else if(i == 1 && j == 7)
-                    newPiece = new SingleMirrorPiece(j, i, true, Directions.MirrorDirection.NORTHEAST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, true, Directions.MirrorDirection.NORTHEAST);
                 else if((i == 4 && j == 2) || (i == 3 && j == 9))
-                    newPiece = new SingleMirrorPiece(j, i, true, Directions.MirrorDirection.SOUTHWEST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, true, Directions.MirrorDirection.SOUTHWEST);
 
                 // add single mirror pieces - black
                 else if((i == 3 && j == 0) || (i == 2 && j == 6) || (i == 4 && j == 7) || (i == 7 && j == 7))
-                    newPiece = new SingleMirrorPiece(j, i, false, Directions.MirrorDirection.SOUTHEAST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, false, Directions.MirrorDirection.SOUTHEAST);
                 else if((i == 4 && j == 0) || (i == 3 && j == 7))
-                    newPiece = new SingleMirrorPiece(j, i, false, Directions.MirrorDirection.NORTHEAST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, false, Directions.MirrorDirection.NORTHEAST);
                 else if(i == 6 && j == 2)
-                    newPiece = new SingleMirrorPiece(j, i, false, Directions.MirrorDirection.SOUTHWEST);
+                    placeMirror(cell, BoardState.SINGLE_MIRROR, false, Directions.MirrorDirection.SOUTHWEST);
 
                 // add double mirror pieces - white
                 else if(i == 3 && j == 4)
-                    newPiece = new DoubleMirrorPiece(j, i, true, Directions.MirrorDirection.NORTHWEST);
+                    placeMirror(cell, BoardState.DOUBLE_MIRROR, true, Directions.MirrorDirection.NORTHWEST);
                 else if(i == 3 && j == 5)
-                    newPiece = new DoubleMirrorPiece(j, i, true, Directions.MirrorDirection.NORTHEAST);
+                    placeMirror(cell, BoardState.DOUBLE_MIRROR, true, Directions.MirrorDirection.NORTHEAST);
 
                 // add double mirror pieces - black
                 else if(i == 4 && j == 4)
-                    newPiece = new DoubleMirrorPiece(j, i, false, Directions.MirrorDirection.NORTHEAST);
+                    placeMirror(cell, BoardState.DOUBLE_MIRROR, false, Directions.MirrorDirection.NORTHEAST);
                 else if(i == 4 && j == 5)
-                    newPiece = new DoubleMirrorPiece(j, i, false, Directions.MirrorDirection.NORTHWEST);
+                    placeMirror(cell, BoardState.DOUBLE_MIRROR, false, Directions.MirrorDirection.NORTHWEST);
 
                 // add guardian pieces
                 else if((i == 0 && j == 3) || (i == 0 && j == 5))
-                    newPiece = new GuardianPiece(j, i, true, Directions.Direction.NORTH);
+                    placeBlock(cell, BoardState.GUARDIAN, true, Directions.Direction.NORTH);
                 else if((i == 7 && j == 4) || (i == 7 && j == 6))
-                    newPiece = new GuardianPiece(j, i, false, Directions.Direction.SOUTH);
+                    placeBlock(cell, BoardState.GUARDIAN, false, Directions.Direction.SOUTH);
 
                 // add king pieces
                 else if(i == 0 && j == 4)
-                {
-                    newPiece = new KingPiece(j, i, true, Directions.Direction.NORTH);
-                    this.aPharaoh = (KingPiece)newPiece;
-                }
+                    placeBlock(cell, BoardState.KING, true, Directions.Direction.NORTH);
                 else if(i == 7 && j == 5)
-                {
-                    newPiece = new KingPiece(j, i, false, Directions.Direction.SOUTH);
-                    this.bPharaoh = (KingPiece)newPiece;
-                }
+                    placeBlock(cell, BoardState.KING, false, Directions.Direction.SOUTH);
 
                 // add laser pieces
                 else if(i == 0 && j == 9)
-                {
-                    newPiece = new LaserPiece(j, i, true, Directions.Direction.NORTH);
-                    this.aLaser = (LaserPiece)newPiece;
-                }
+                    placeBlock(cell, BoardState.LASER, true, Directions.Direction.NORTH);
                 else if(i == 7 && j == 0)
-                {
-                    newPiece = new LaserPiece(j, i, false, Directions.Direction.SOUTH);
-                    this.bLaser = (LaserPiece)newPiece;
-                }
-
-                this.pieces.set(i * x + j, newPiece);
+                    placeBlock(cell, BoardState.LASER, false, Directions.Direction.SOUTH);
             }
         }
     }
 
+    private void placeMirror(int cell, int kind, boolean color, Directions.MirrorDirection o)
+    {
+        state.place(cell, kind, color, Directions.quarterTurns(o));
+    }
+
+    private void placeBlock(int cell, int kind, boolean color, Directions.Direction o)
+    {
+        state.place(cell, kind, color, Directions.quarterTurns(o));
+    }
+
     @Override
     public String getGameState() {
-        if(bPharaoh==null) {
+        if(!state.hasKing(false)) {
             return "AWin";
-        } else if (aPharaoh==null) {
+        } else if (!state.hasKing(true)) {
             return "BWin";
         }
         return "NoWin";
@@ -0,0 +1,60 @@
+package com.hyperkinetic.game.board;
+
+/**
+ * Random 64-bit keys used to hash a {@link BoardState}. The key of a position is the XOR of one key for every
+ * (kind, colour, orientation, cell) of a piece on the board, and of {@link #BLACK_TO_MOVE} when black is to move,
+ * so it can be updated in constant time whenever a piece is placed, removed or rotated.
+ *
+ * The keys are generated from a fixed seed, so the client and the server compute the same key for a position.
+ */
+public class Zobrist
+{
+    /**
+     * Key of black being the side to move.
+     */
+    public static final long BLACK_TO_MOVE;
+
+    /**
+     * Keys of the pieces, indexed by {@link #index}.
+     */
+    private static final long[] PIECES = new long[BoardState.KIND_COUNT * 2 * 4 * BoardState.MAX_CELLS];
+
+    static
+    {
+        long seed = 0x4C61736572476D65L;
+        for(int i = 0; i < PIECES.length; i++)
+        {
+            seed += 0x9E3779B97F4A7C15L;
+            PIECES[i] = mix(seed);
+        }
+        seed += 0x9E3779B97F4A7C15L;
+        BLACK_TO_MOVE = mix(seed);
+    }
+
+    private Zobrist() {}
+
+    /**
+     * @param cell the cell of the piece
+     * @param kind the kind of the piece
+     * @param white the colour of the piece
+     * @param orientation the orientation of the piece in clockwise quarter turns
+     * @return the key of a piece on a cell
+     */
+    public static long piece(int cell, int kind, boolean white, int orientation) {
+        return PIECES[index(cell, kind, white, orientation)];
+    }
+
+    private static int index(int cell, int kind, boolean white, int orientation) {
+        return (((kind << 1 | (white ? 1 : 0)) << 2 | orientation) << 7) | cell;
+    }
+
+    /**
+     * Scrambles the bits of a counter (the finalizer of SplitMix64).
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -40,6 +40,10 @@ public class GameInputProcessor implements InputProcessor
         {
             return AbstractGameBoard.keyPressed("E");
         }
+        else if(keycode == Input.Keys.Z)
+        {
+            return AbstractGameBoard.keyPressed("Z");
+        }
         else if(keycode == Input.Keys.ESCAPE)
         {
             game.returnToMenu();
@@ -8,6 +8,7 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
 import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.engine.Evaluator;
 import com.hyperkinetic.game.playflow.ClientThread;
 import com.hyperkinetic.game.playflow.GameRoom;
 import com.hyperkinetic.game.playflow.Player;
@@ -49,6 +50,7 @@ public class LaserGame extends Game {
 
     public void create() {
         client = null;
+        Evaluator.loadDefaultWeights();
         batch = new SpriteBatch();
         gameInputProcessor = new GameInputProcessor(this);
         Gdx.input.setInputProcessor(gameInputProcessor);
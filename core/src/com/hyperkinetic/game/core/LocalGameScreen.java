@@ -7,10 +7,30 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.board.StandardBoard;
+import com.hyperkinetic.game.engine.OpeningBook;
+import com.hyperkinetic.game.engine.ParallelSearch;
+import com.hyperkinetic.game.engine.Ponderer;
+import com.hyperkinetic.game.engine.SearchLimits;
+import com.hyperkinetic.game.engine.SearchResult;
+import com.hyperkinetic.game.engine.Tablebases;
 
 public class LocalGameScreen implements Screen
 {
+    /**
+     * Time the computer spends on each move, in milliseconds.
+     */
+    public static final long COMPUTER_MOVE_TIME = 1000;
+    /**
+     * Size of the transposition table of the computer player, in megabytes.
+     */
+    public static final int COMPUTER_TABLE_SIZE = 32;
+    /**
+     * Number of threads the computer player searches with.
+     */
+    public static int computerThreads = Runtime.getRuntime().availableProcessors();
+
     private static SpriteBatch batch;
 
     private AbstractGameBoard board;
@@ -18,13 +38,48 @@ public class LocalGameScreen implements Screen
     private Stage stage;
     private LaserGame game;
 
+    /**
+     * The engine playing black, or null if both sides are played locally.
+     */
+    private ParallelSearch engine;
+    /**
+     * Keeps the engine searching while the player thinks.
+     */
+    private Ponderer ponderer;
+    /**
+     * The thread searching for the computer's move, while it is thinking.
+     */
+    private Thread engineThread;
+    /**
+     * The result of the last search, waiting to be played on the render thread.
+     */
+    private volatile SearchResult engineResult;
+
     public LocalGameScreen(LaserGame g)
+    {
+        this(g, false);
+    }
+
+    /**
+     * @param g the game
+     * @param vsComputer whether black is played by the computer
+     */
+    public LocalGameScreen(LaserGame g, boolean vsComputer)
     {
         game = g;
         stage = new Stage(new ScreenViewport());
         board = new StandardBoard(true, true);
         board.initialize();
 
+        if(vsComputer)
+        {
+            engine = new ParallelSearch(computerThreads, COMPUTER_TABLE_SIZE);
+            engine.setBook(OpeningBook.openDefault());
+            engine.setTablebases(Tablebases.openDefault());
+            ponderer = new Ponderer(engine);
+            board.setComputerPlayer(false);
+        }
+
         batch = new SpriteBatch();
     }
 
@@ -40,6 +95,8 @@ public class LocalGameScreen implements Screen
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
+        if(engine != null) playComputerMove();
+
         batch.begin();
         board.render(batch);
         
@@ -49,6 +106,42 @@ public class LocalGameScreen implements Screen
         batch.end();
     }
 
+    /**
+     * Starts a search when it becomes the computer's turn, and plays the move once the search is done. The search
+     * runs on its own thread so the board keeps rendering while the computer thinks, and after its move the
+     * computer keeps thinking about the player's most likely reply.
+     */
+    private void playComputerMove()
+    {
+        if(engineResult != null)
+        {
+            SearchResult result = engineResult;
+            engineResult = null;
+            engineThread = null;
+            Gdx.app.log("LocalGameScreen", "computer " + result + ", " + ponderer);
+
+            if(board.isComputerTurn())
+            {
+                board.update(result.move);
+                board.fireLaser();
+                ponderer.ponder(board.getState());
+            }
+        }
+        else if(engineThread == null && board.isComputerTurn())
+        {
+            final BoardState position = new BoardState(board.getState());
+            engineThread = new Thread("computer player")
+            {
+                @Override
+                public void run() {
+                    engineResult = ponderer.respond(position, SearchLimits.time(COMPUTER_MOVE_TIME));
+                }
+            };
+            engineThread.setDaemon(true);
+            engineThread.start();
+        }
+    }
+
     @Override
     public void resize(int width, int height) {
 
@@ -71,6 +164,12 @@ public class LocalGameScreen implements Screen
 
     @Override
     public void dispose() {
+        if(engine != null)
+        {
+            ponderer.stop();
+            engine.stop();
+            engine.shutdown();
+        }
         batch.dispose();
     }
 }
@@ -100,6 +100,25 @@ public class MainMenuScreen  extends InputAdapter implements Screen {
         }
         stage.addActor(guest);
 
+        if(LaserGame.client == null)
+        {
+            Button computer = new TextButton("VS COMPUTER", neon);
+            computer.setSize((float)(width / 9.6),(float)(height / 10.8));
+            computer.setPosition(width/2 - (float)(width / 9.6) / 2, height/2 + 2 * (float)(height / 10.8));
+            computer.addListener(new InputListener(){
+                @Override
+                public void touchUp (InputEvent event, float x, float y, int pointer, int button) {
+                    clickSound.play();
+                    game.setScreen(new LocalGameScreen(game, true));
+                }
+                @Override
+                public boolean touchDown (InputEvent event, float x, float y, int pointer, int button) {
+                    return true;
+                }
+            });
+            stage.addActor(computer);
+        }
+
 
         Button login = new TextButton(LaserGame.client == null ? "LOG IN" : "LOG OUT", neon);
         login.setSize((float)(width / 9.6),(float)(height / 10.8));
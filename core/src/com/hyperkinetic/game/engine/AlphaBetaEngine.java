@@ -0,0 +1,452 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+/**
+ * An iterative deepening alpha-beta search over full turns (a move followed by the laser of the side that moved).
+ *
+ * The search plays and takes back turns on its own copy of the position with {@link BoardState#makeTurn}, so the
+ * board being searched can keep changing while the engine thinks. A position is won as soon as the opposing king
+ * has been destroyed, following the order of <code>getGameState()</code>: if both kings are destroyed, white wins.
+ */
+public class AlphaBetaEngine implements SearchEngine
+{
+    /**
+     * Score of a won position, reduced by one for every turn needed to reach it.
+     */
+    public static final int WIN = 30000;
+    /**
+     * Deepest ply the search can reach.
+     */
+    public static final int MAX_PLY = 64;
+    /**
+     * Scores above this, or below its negation, announce a forced result: a win found by the search within
+     * {@link #MAX_PLY} plies, or one taken from an endgame table up to {@link Tablebase#MAX_DISTANCE} plies further.
+     */
+    public static final int WIN_BOUND = WIN - MAX_PLY - Tablebase.MAX_DISTANCE;
+
+    private static final int INFINITY = 31000;
+    /**
+     * Number of nodes between two checks of the time limit.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final TranspositionTable table;
+    /**
+     * This engine's probes and stores of the table.
+     */
+    private final TranspositionTable.Counters tableCounters;
+    private final LaserTrace trace;
+    private final Evaluation evaluation;
+    /**
+     * Exposure maps of the root position, used to try the moves that lose at once last.
+     */
+    private final ThreatMap threats;
+    private final MoveOrdering ordering;
+    /**
+     * Move buffers and the scores of their moves, one per ply.
+     */
+    private final int[][] moves;
+    private final int[][] scores;
+    private boolean ordered = true;
+    /**
+     * Opening book consulted before searching, or null.
+     */
+    private OpeningBook book;
+    /**
+     * Endgame tables probed inside the search, or null.
+     */
+    private Tablebases tablebases;
+    /**
+     * Told about every completed iteration, or null.
+     */
+    private IterationListener listener;
+
+    private BoardState state;
+    private SearchLimits limits;
+    private long startTime;
+    private long deadline;
+    private long nodes;
+    private volatile boolean stopped;
+    /**
+     * Best move of the last iteration that searched the root.
+     */
+    private int rootMove;
+    /**
+     * Index of this engine among the threads of a {@link ParallelSearch}, 0 for the main thread.
+     */
+    private int helper;
+
+    public AlphaBetaEngine(TranspositionTable table)
+    {
+        this.table = table;
+        tableCounters = table.newCounters();
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        evaluation = new Evaluation();
+        threats = new ThreatMap();
+        ordering = new MoveOrdering();
+        moves = new int[MAX_PLY][Move.MAX_MOVES];
+        scores = new int[MAX_PLY][Move.MAX_MOVES];
+    }
+
+    /**
+     * Creates an engine with a transposition table of its own.
+     *
+     * @param megabytes the size of the transposition table
+     */
+    public AlphaBetaEngine(int megabytes) {
+        this(new TranspositionTable(megabytes));
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Makes this engine a helper thread of a parallel search. Helpers start at different depths and try the root
+     * moves in a different order, so that they fill the shared table with positions the main thread needs next
+     * instead of repeating its work.
+     *
+     * @param helper the index of the thread, 0 for the main thread
+     */
+    public void setHelper(int helper) {
+        this.helper = helper;
+    }
+
+    /**
+     * Plays moves from an opening book without searching while the position is in it.
+     *
+     * @param book the book, or null to always search
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Scores the positions covered by endgame tables from the tables instead of searching them.
+     *
+     * @param tablebases the tables, or null to search every position
+     */
+    public void setTablebases(Tablebases tablebases) {
+        this.tablebases = tablebases;
+    }
+
+    /**
+     * Reports the best move of every iteration while a search runs, for showing the engine's progress.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setListener(IterationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Turns the {@link MoveOrdering} on or off. Without it only the move from the transposition table is tried
+     * first; this is meant for measuring the ordering.
+     */
+    public void setMoveOrdering(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Checks every incremental evaluation against a full one. This is slow and meant for testing.
+     */
+    public void setSelfCheck(boolean selfCheck) {
+        evaluation.setSelfCheck(selfCheck);
+    }
+
+    /**
+     * Searches the position on a board for the side to move.
+     *
+     * @param board the board to search
+     * @param limits the budget of the search
+     * @return the best move found and the search statistics
+     */
+    public SearchResult search(AbstractGameBoard board, SearchLimits limits) {
+        return search(board.getState(), limits);
+    }
+
+    /**
+     * Searches a position for the side to move. Always returns a legal move if there is one, even if the budget
+     * runs out before the first iteration finishes.
+     *
+     * @param root the position to search; it is not changed
+     * @param limits the budget of the search
+     * @return the best move found and the search statistics
+     */
+    @Override
+    public SearchResult search(BoardState root, SearchLimits limits)
+    {
+        stopped = false;
+        return run(root, limits);
+    }
+
+    /**
+     * Searches like {@link #search(BoardState, SearchLimits)}, but keeps a stop that arrived before the search
+     * started. A {@link ParallelSearch} clears the flags of its engines with {@link #clearStop()} before handing
+     * them to the helper threads, so a stop sent before a helper gets going is not lost.
+     */
+    SearchResult run(BoardState root, SearchLimits limits)
+    {
+        if(book != null)
+        {
+            int move = book.probe(root);
+            if(move != Move.NONE) return new SearchResult(move, 0, 0, 0, 0);
+        }
+
+        this.state = new BoardState(root);
+        this.limits = limits;
+        startTime = System.currentTimeMillis();
+        deadline = limits.time > 0 ? startTime + limits.time : Long.MAX_VALUE;
+        nodes = 0;
+        if(helper == 0) table.newSearch();
+        evaluation.reset(state);
+        threats.compute(state);
+        ordering.newSearch();
+
+        int maxDepth = limits.depth > 0 ? Math.min(limits.depth, MAX_PLY - 1) : MAX_PLY - 1;
+        int count = state.generateMoves(state.isWhiteToMove(), moves[0], 0);
+        int bestMove = count > 0 ? moves[0][0] : Move.NONE;
+        int bestScore = 0;
+        int completed = 0;
+
+        for(int depth = 1 + (helper & 1); depth <= maxDepth && count > 0; depth++)
+        {
+            int score = search(depth, -INFINITY, INFINITY, 0);
+            if(stopped) break;
+
+            bestMove = rootMove;
+            bestScore = score;
+            completed = depth;
+            if(listener != null)
+                listener.iterationDone(new SearchResult(bestMove, bestScore, completed, nodes,
+                        System.currentTimeMillis() - startTime));
+
+            // a forced result will not change with more depth
+            if(Math.abs(score) > WIN_BOUND) break;
+        }
+
+        return new SearchResult(bestMove, bestScore, completed, nodes, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Asks a running search to stop as soon as possible. The search then returns the result of its last completed
+     * iteration.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Forgets everything learned in earlier searches, the transposition table and the move ordering, so that the
+     * next game is played the same whichever games this engine played before.
+     */
+    public void newGame()
+    {
+        table.clear();
+        ordering.clear();
+    }
+
+    /**
+     * Gets the engine ready for a call of {@link #run}.
+     */
+    void clearStop() {
+        stopped = false;
+    }
+
+    /**
+     * @return the number of nodes visited by the current or last search
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Negamax search of the current position.
+     *
+     * @return the score of the position for the side to move, or 0 if the search was stopped
+     */
+    private int search(int depth, int alpha, int beta, int ply)
+    {
+        if((++nodes & (CHECK_INTERVAL - 1)) == 0) checkLimits();
+        if(stopped) return 0;
+
+        // the side that just moved may have destroyed a king; the black king is checked first
+        if(!state.hasKing(false)) return state.isWhiteToMove() ? WIN - ply : ply - WIN;
+        if(!state.hasKing(true)) return state.isWhiteToMove() ? ply - WIN : WIN - ply;
+
+        // the root still needs a move, so only the positions below it are taken from the tables
+        if(tablebases != null && ply > 0)
+        {
+            int value = tablebases.probe(state);
+            if(value != Tablebase.UNKNOWN) return value > 0 ? WIN - ply - value : value < 0 ? ply - value - WIN : 0;
+        }
+
+        if(depth == 0 || ply >= MAX_PLY - 1) return evaluation.evaluate(state);
+
+        long key = state.getKey();
+        long entry = table.probe(key, tableCounters);
+        int hashMove = Move.NONE;
+        if(entry != 0)
+        {
+            hashMove = TranspositionTable.move(entry);
+            if(ply > 0 && TranspositionTable.depth(entry) >= depth)
+            {
+                int score = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if(bound == TranspositionTable.EXACT ||
+                        (bound == TranspositionTable.LOWER && score >= beta) ||
+                        (bound == TranspositionTable.UPPER && score <= alpha))
+                    return score;
+            }
+        }
+
+        int[] list = moves[ply];
+        int count = state.generateMoves(state.isWhiteToMove(), list, 0);
+        if(count == 0) return evaluation.evaluate(state);
+
+        // helpers spread out over the root moves instead of following the ordering
+        boolean sorted = ordered && !(ply == 0 && helper > 0);
+        if(sorted)
+        {
+            ordering.score(state, evaluation, list, scores[ply], count, ply, hashMove);
+        }
+        else
+        {
+            if(ply == 0)
+            {
+                if(helper > 0) rotate(list, count, helper * 7 % count);
+                losersLast(list, count);
+            }
+            moveFirst(list, count, hashMove);
+        }
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = list[0];
+
+        for(int i = 0; i < count; i++)
+        {
+            if(sorted) MoveOrdering.pick(list, scores[ply], i, count);
+            state.makeTurn(list[i], trace);
+            evaluation.makeTurn(state, list[i], trace);
+            int score = -search(depth - 1, -beta, -alpha, ply + 1);
+            state.unmakeTurn();
+            evaluation.unmakeTurn(state);
+            if(stopped) return 0;
+
+            if(score > bestScore)
+            {
+                bestScore = score;
+                bestMove = list[i];
+                if(score > alpha) alpha = score;
+                if(alpha >= beta)
+                {
+                    if(sorted) ordering.cutoff(state, list[i], scores[ply][i], depth, ply);
+                    break;
+                }
+            }
+        }
+
+        int bound = bestScore >= beta ? TranspositionTable.LOWER :
+                bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(key, depth, bound, toTable(bestScore, ply), bestMove, tableCounters);
+        if(ply == 0) rootMove = bestMove;
+        return bestScore;
+    }
+
+    /**
+     * Swaps a move, usually the one stored in the table, to the front of the list if it is there.
+     */
+    private static void moveFirst(int[] list, int count, int move)
+    {
+        if(move == Move.NONE) return;
+        for(int i = 0; i < count; i++)
+        {
+            if(list[i] == move)
+            {
+                list[i] = list[0];
+                list[0] = move;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the root moves that certainly destroy the mover's own king to the end of the list, keeping the order
+     * of the others. The last ply's buffer is free, since the search never generates moves there.
+     */
+    private void losersLast(int[] list, int count)
+    {
+        int kept = 0;
+        int lost = 0;
+        int[] losers = moves[MAX_PLY - 1];
+        for(int i = 0; i < count; i++)
+        {
+            if(threats.losesAtOnce(state, list[i])) losers[lost++] = list[i];
+            else list[kept++] = list[i];
+        }
+        System.arraycopy(losers, 0, list, kept, lost);
+    }
+
+    /**
+     * Rotates the first moves of a list left by a distance, by reversing both parts and then the whole.
+     */
+    private static void rotate(int[] list, int count, int distance)
+    {
+        reverse(list, 0, distance);
+        reverse(list, distance, count);
+        reverse(list, 0, count);
+    }
+
+    private static void reverse(int[] list, int from, int to)
+    {
+        for(int i = from, j = to - 1; i < j; i++, j--)
+        {
+            int tmp = list[i];
+            list[i] = list[j];
+            list[j] = tmp;
+        }
+    }
+
+    private void checkLimits()
+    {
+        if(System.currentTimeMillis() >= deadline || (limits.nodes > 0 && nodes >= limits.nodes))
+            stopped = true;
+    }
+
+    /**
+     * Win scores are stored relative to the position they are stored for rather than to the root.
+     */
+    private static int toTable(int score, int ply)
+    {
+        if(score > WIN_BOUND) return score + ply;
+        if(score < -WIN_BOUND) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply)
+    {
+        if(score > WIN_BOUND) return score - ply;
+        if(score < -WIN_BOUND) return score + ply;
+        return score;
+    }
+
+    /**
+     * Receives the result of each iteration of a search as soon as it completes.
+     */
+    public interface IterationListener
+    {
+        /**
+         * Called on the searching thread; it should return quickly.
+         *
+         * @param result the best move so far, with the depth and nodes of the search up to this iteration
+         */
+        void iterationDone(SearchResult result);
+    }
+}
@@ -0,0 +1,57 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed positions for measuring the engines. The suite is the starting position of the StandardBoard followed by
+ * positions reached from it by random play with a fixed seed, so every run measures the same positions.
+ */
+public class Benchmarks
+{
+    /**
+     * Number of positions in the suite.
+     */
+    public static final int SUITE_SIZE = 8;
+    /**
+     * Seed of the random play that builds the suite.
+     */
+    public static final long SEED = 201;
+
+    private Benchmarks() {}
+
+    /**
+     * @return new copies of the positions of the suite
+     */
+    public static List<BoardState> positions()
+    {
+        List<BoardState> retval = new ArrayList<>();
+        BoardState start = new StandardBoard(true).getState();
+        retval.add(new BoardState(start));
+
+        Random random = new Random(SEED);
+        LaserTrace trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        int[] moves = new int[Move.MAX_MOVES];
+
+        while(retval.size() < SUITE_SIZE)
+        {
+            BoardState state = new BoardState(start);
+            int turns = 4 + 4 * retval.size();
+            for(int i = 0; i < turns && state.hasKing(true) && state.hasKing(false); i++)
+            {
+                int count = state.generateMoves(state.isWhiteToMove(), moves, 0);
+                state.makeTurn(moves[random.nextInt(count)], trace);
+            }
+            if(state.hasKing(true) && state.hasKing(false))
+                retval.add(new BoardState(state));
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,234 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+/**
+ * The terms of {@link Evaluator}, kept up to date from the changes made by each turn instead of being recomputed
+ * from the whole board.
+ *
+ * Material and cover only change for the moved piece and the pieces its laser destroyed. The path of each laser is
+ * kept as a set of cells: the laser that was just fired is known from its trace, and the other laser only has to
+ * be traced again if the turn changed a cell on its path. The terms of every turn are saved on a stack, so taking a
+ * turn back restores them in constant time.
+ *
+ * In self-check mode every update is compared against {@link Evaluator#evaluate}, and a mismatch throws an
+ * IllegalStateException.
+ */
+public class Evaluation
+{
+    private static final int WHITE = 0;
+    private static final int BLACK = 1;
+
+    /**
+     * Number of saved longs per turn: material, cover, king cell and path of both sides.
+     */
+    private static final int FRAME = 10;
+
+    private final long[] material = new long[2];
+    private final long[] cover = new long[2];
+    private final long[] king = new long[2];
+    /**
+     * Cells on the path of each side's laser, two words per side.
+     */
+    private final long[] path = new long[4];
+
+    private long[] stack;
+    private int size;
+
+    private final LaserTrace trace;
+    private boolean selfCheck;
+    private LaserTrace checkTrace;
+
+    public Evaluation()
+    {
+        stack = new long[FRAME * 64];
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+    }
+
+    /**
+     * Compares every update against a full evaluation. This is slow and meant for testing.
+     */
+    public void setSelfCheck(boolean selfCheck)
+    {
+        this.selfCheck = selfCheck;
+        if(selfCheck && checkTrace == null) checkTrace = new LaserTrace();
+    }
+
+    /**
+     * Computes every term from scratch and forgets the saved turns.
+     *
+     * @param state the position to evaluate from now on
+     */
+    public void reset(BoardState state)
+    {
+        size = 0;
+        for(int side = WHITE; side <= BLACK; side++)
+        {
+            boolean white = side == WHITE;
+            material[side] = 0;
+            for(int kind = 0; kind < BoardState.KIND_COUNT; kind++)
+                material[side] += Evaluator.PIECE_VALUES[kind] * state.countPieces(kind, white);
+            king[side] = state.findPiece(BoardState.KING, white);
+            cover[side] = Evaluator.cover(state, (int) king[side], white);
+            retrace(state, side);
+        }
+        check(state);
+    }
+
+    /**
+     * Updates the terms after a turn has been played.
+     *
+     * @param state the position after the turn, see {@link BoardState#makeTurn}
+     * @param move the move of the turn
+     * @param fired the trace of the laser fired by the turn
+     */
+    public void makeTurn(BoardState state, int move, LaserTrace fired)
+    {
+        if(size + FRAME > stack.length)
+        {
+            long[] grown = new long[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, size);
+            stack = grown;
+        }
+        System.arraycopy(material, 0, stack, size, 2);
+        System.arraycopy(cover, 0, stack, size + 2, 2);
+        System.arraycopy(king, 0, stack, size + 4, 2);
+        System.arraycopy(path, 0, stack, size + 6, 4);
+        size += FRAME;
+
+        int mover = state.isWhiteToMove() ? BLACK : WHITE;
+        int other = 1 - mover;
+        int from = Move.from(move);
+        int to = Move.to(move);
+        boolean kingMoved = false;
+
+        if(!Move.isRotation(move))
+        {
+            int kind = movedKind(state, to, fired);
+            if(kind == BoardState.KING)
+            {
+                king[mover] = to;
+                kingMoved = true;
+            }
+            else if(kind == BoardState.GUARDIAN)
+            {
+                if(Evaluator.adjacent(state, to, (int) king[mover])) cover[mover]++;
+                if(Evaluator.adjacent(state, from, (int) king[mover])) cover[mover]--;
+            }
+        }
+
+        boolean otherPathChanged = onPath(other, from) || onPath(other, to);
+
+        for(int i = 0; i < fired.getDestroyedCount(); i++)
+        {
+            int piece = fired.getDestroyed(i);
+            int cell = LaserTrace.cellOf(piece);
+            int side = LaserTrace.isWhite(piece) ? WHITE : BLACK;
+            int kind = LaserTrace.kindOf(piece);
+
+            material[side] -= Evaluator.PIECE_VALUES[kind];
+            if(kind == BoardState.KING)
+                king[side] = BoardState.EMPTY;
+            else if(kind == BoardState.GUARDIAN && !(kingMoved && side == mover) &&
+                    Evaluator.adjacent(state, cell, (int) king[side]))
+                cover[side]--;
+            if(onPath(other, cell)) otherPathChanged = true;
+        }
+
+        // a king that moved is counted again on the board as it is after the laser
+        if(kingMoved) cover[mover] = Evaluator.cover(state, (int) king[mover], mover == WHITE);
+        if(king[mover] == BoardState.EMPTY) cover[mover] = 0;
+        if(king[other] == BoardState.EMPTY) cover[other] = 0;
+
+        // the laser just fired is still valid unless it destroyed something
+        if(fired.getDestroyedCount() == 0)
+        {
+            path[mover << 1] = fired.getPath(0);
+            path[mover << 1 | 1] = fired.getPath(1);
+        }
+        else retrace(state, mover);
+
+        if(otherPathChanged) retrace(state, other);
+        check(state);
+    }
+
+    /**
+     * Restores the terms of the position before the last turn passed to {@link #makeTurn}.
+     */
+    public void unmakeTurn()
+    {
+        size -= FRAME;
+        System.arraycopy(stack, size, material, 0, 2);
+        System.arraycopy(stack, size + 2, cover, 0, 2);
+        System.arraycopy(stack, size + 4, king, 0, 2);
+        System.arraycopy(stack, size + 6, path, 0, 4);
+    }
+
+    /**
+     * Restores the terms of the position before the last turn and checks them against the position.
+     *
+     * @param state the position after the turn has been taken back
+     */
+    public void unmakeTurn(BoardState state)
+    {
+        unmakeTurn();
+        check(state);
+    }
+
+    /**
+     * @param state the position the terms describe
+     * @return the score for the side to move, equal to {@link Evaluator#evaluate}
+     */
+    public int evaluate(BoardState state)
+    {
+        long score = material[WHITE] - material[BLACK];
+        score += Evaluator.guardianCover * (cover[WHITE] - cover[BLACK]);
+        score += Evaluator.proximity(Evaluator.distance(state, path[0], path[1], (int) king[BLACK]));
+        score -= Evaluator.proximity(Evaluator.distance(state, path[2], path[3], (int) king[WHITE]));
+        return (int) (state.isWhiteToMove() ? score : -score);
+    }
+
+    /**
+     * @return whether the path of a side's laser, fired in the current position, passes through a cell
+     */
+    public boolean isOnPath(boolean white, int cell) {
+        return onPath(white ? WHITE : BLACK, cell);
+    }
+
+    private boolean onPath(int side, int cell) {
+        return (path[side << 1 | (cell >>> 6)] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Finds the kind of the piece that a step moved onto a cell, even if the laser destroyed it afterwards.
+     */
+    private static int movedKind(BoardState state, int to, LaserTrace fired)
+    {
+        int kind = state.getKind(to);
+        if(kind != BoardState.EMPTY) return kind;
+        for(int i = 0; i < fired.getDestroyedCount(); i++)
+            if(LaserTrace.cellOf(fired.getDestroyed(i)) == to) return LaserTrace.kindOf(fired.getDestroyed(i));
+        return BoardState.EMPTY;
+    }
+
+    private void retrace(BoardState state, int side)
+    {
+        trace.fire(state, side == WHITE);
+        path[side << 1] = trace.getPath(0);
+        path[side << 1 | 1] = trace.getPath(1);
+    }
+
+    private void check(BoardState state)
+    {
+        if(!selfCheck) return;
+        int expected = Evaluator.evaluate(state, checkTrace);
+        int actual = evaluate(state);
+        if(expected != actual)
+            throw new IllegalStateException("Incremental evaluation " + actual + " differs from " + expected +
+                    " (material " + material[WHITE] + "/" + material[BLACK] + ", cover " + cover[WHITE] + "/" +
+                    cover[BLACK] + ")");
+    }
+}
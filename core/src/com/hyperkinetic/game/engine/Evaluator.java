@@ -0,0 +1,247 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * Static evaluation of a laser game position, computed from scratch. The score is made of three terms:
+ * <ul>
+ *     <li>material: the value of the pieces each side has left,</li>
+ *     <li>cover: the number of GuardianPieces next to the KingPiece of their own side,</li>
+ *     <li>proximity: how close the path of each side's laser comes to the opposing KingPiece.</li>
+ * </ul>
+ * {@link Evaluation} keeps the same terms up to date move by move; this class is the reference it is checked
+ * against.
+ *
+ * The weights of the terms can be replaced by those in a weights file, such as the checkpoints written by the
+ * {@link Tuner}.
+ */
+public class Evaluator
+{
+    /**
+     * Value of each piece kind, indexed by the {@link BoardState} kind. Kings and lasers are never lost without
+     * the game ending or at all, so they carry no material value.
+     */
+    public static final int[] PIECE_VALUES = { 0, 0, 100, 120, 200 };
+    /**
+     * Value of each GuardianPiece standing next to its own KingPiece.
+     */
+    public static int guardianCover = 15;
+    /**
+     * Value of a laser path passing at a given distance (in king steps) from the opposing KingPiece, indexed by the
+     * distance. Distance 0 means the laser would hit the king if it were fired now.
+     */
+    public static final int[] LASER_PROXIMITY = { 300, 40, 15, 5 };
+    /**
+     * The file weights are looked for in by {@link #loadDefaultWeights()}.
+     */
+    public static final String WEIGHTS_FILE = "weights.txt";
+
+    /**
+     * Marks a missing king or an empty laser path when measuring proximity.
+     */
+    static final int FAR = Integer.MAX_VALUE;
+
+    private Evaluator() {}
+
+    /**
+     * Replaces the weights with those of a weights file. Weights missing from the file are left as they are.
+     *
+     * @param file a file written by {@link #saveWeights}
+     * @throws IOException if the file cannot be read
+     */
+    public static void loadWeights(File file) throws IOException
+    {
+        Properties weights = new Properties();
+        Reader reader = new FileReader(file);
+        try {
+            weights.load(reader);
+        } finally {
+            reader.close();
+        }
+
+        try {
+            readArray(weights.getProperty("pieceValues"), PIECE_VALUES);
+            readArray(weights.getProperty("laserProximity"), LASER_PROXIMITY);
+            String cover = weights.getProperty("guardianCover");
+            if(cover != null) guardianCover = Integer.parseInt(cover.trim());
+        } catch(NumberFormatException nfe) {
+            throw new IOException(file + " has a malformed weight: " + nfe.getMessage());
+        }
+    }
+
+    /**
+     * Loads the weights in {@link #WEIGHTS_FILE} if there is one. Called once at startup, before any search.
+     *
+     * @return whether weights were loaded
+     */
+    public static boolean loadDefaultWeights()
+    {
+        File file = new File(WEIGHTS_FILE);
+        if(!file.isFile()) return false;
+        try {
+            loadWeights(file);
+            return true;
+        } catch(IOException ioe) {
+            System.out.println("Could not load the evaluation weights: " + ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the current weights to a file.
+     */
+    public static void saveWeights(File file, String comment) throws IOException
+    {
+        Properties weights = new Properties();
+        weights.setProperty("pieceValues", writeArray(PIECE_VALUES));
+        weights.setProperty("guardianCover", Integer.toString(guardianCover));
+        weights.setProperty("laserProximity", writeArray(LASER_PROXIMITY));
+
+        // written next to the old file and renamed, so a reader never sees half a checkpoint
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new FileWriter(temp);
+        try {
+            weights.store(writer, comment);
+        } finally {
+            writer.close();
+        }
+        if(file.exists() && !file.delete()) throw new IOException("Could not replace " + file);
+        if(!temp.renameTo(file)) throw new IOException("Could not write " + file);
+    }
+
+    private static void readArray(String value, int[] array)
+    {
+        if(value == null) return;
+        String[] parts = value.trim().split("\\s+");
+        if(parts.length != array.length)
+            throw new NumberFormatException("expected " + array.length + " values in " + value);
+        int[] values = new int[array.length];
+        for(int i = 0; i < array.length; i++)
+            values[i] = Integer.parseInt(parts[i]);
+        System.arraycopy(values, 0, array, 0, array.length);
+    }
+
+    private static String writeArray(int[] array)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(int value : array)
+        {
+            if(sb.length() > 0) sb.append(' ');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param state the position to evaluate
+     * @return the score of the position for the side to move
+     */
+    public static int evaluate(BoardState state) {
+        return evaluate(state, new LaserTrace());
+    }
+
+    /**
+     * @param state the position to evaluate
+     * @param trace a trace to fire the lasers with
+     * @return the score of the position for the side to move
+     */
+    public static int evaluate(BoardState state, LaserTrace trace)
+    {
+        int score = 0;
+        for(int kind = 0; kind < BoardState.KIND_COUNT; kind++)
+            score += PIECE_VALUES[kind] * (state.countPieces(kind, true) - state.countPieces(kind, false));
+
+        int whiteKing = state.findPiece(BoardState.KING, true);
+        int blackKing = state.findPiece(BoardState.KING, false);
+        score += guardianCover * (cover(state, whiteKing, true) - cover(state, blackKing, false));
+
+        trace.setRecordSegments(false);
+        trace.fire(state, true);
+        score += proximity(distance(state, trace.getPath(0), trace.getPath(1), blackKing));
+        trace.fire(state, false);
+        score -= proximity(distance(state, trace.getPath(0), trace.getPath(1), whiteKing));
+
+        return state.isWhiteToMove() ? score : -score;
+    }
+
+    /**
+     * Counts the GuardianPieces of one side next to a cell.
+     *
+     * @param state the position
+     * @param king the cell of the KingPiece, or {@link BoardState#EMPTY}
+     * @param white the side of the king
+     * @return the number of own guardians on the neighbouring cells
+     */
+    static int cover(BoardState state, int king, boolean white)
+    {
+        if(king == BoardState.EMPTY) return 0;
+        int x = state.cellX(king);
+        int y = state.cellY(king);
+        int retval = 0;
+        for(int nY = y - 1; nY <= y + 1; nY++)
+        {
+            for(int nX = x - 1; nX <= x + 1; nX++)
+            {
+                if(!state.contains(nX, nY) || (nX == x && nY == y)) continue;
+                int cell = state.cell(nX, nY);
+                if(state.getKind(cell) == BoardState.GUARDIAN && state.isWhite(cell) == white) retval++;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return whether two cells are different and touch, including diagonally
+     */
+    static boolean adjacent(BoardState state, int a, int b)
+    {
+        if(a == BoardState.EMPTY || b == BoardState.EMPTY || a == b) return false;
+        return Math.abs(state.cellX(a) - state.cellX(b)) <= 1 && Math.abs(state.cellY(a) - state.cellY(b)) <= 1;
+    }
+
+    /**
+     * Measures the smallest distance in king steps between the cells of a laser path and a KingPiece.
+     *
+     * @param state the position
+     * @param low the path bits of cells 0 to 63
+     * @param high the path bits of cells 64 to 127
+     * @param king the cell of the king, or {@link BoardState#EMPTY}
+     * @return the distance, or {@link #FAR} if there is no king or no path
+     */
+    static int distance(BoardState state, long low, long high, int king)
+    {
+        if(king == BoardState.EMPTY) return FAR;
+        int kX = state.cellX(king);
+        int kY = state.cellY(king);
+        int retval = FAR;
+
+        for(int word = 0; word < 2; word++)
+        {
+            long bits = word == 0 ? low : high;
+            while(bits != 0)
+            {
+                int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int d = Math.max(Math.abs(state.cellX(cell) - kX), Math.abs(state.cellY(cell) - kY));
+                if(d < retval) retval = d;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the proximity value of a laser path at the given distance from a king
+     */
+    static int proximity(int distance) {
+        return distance < LASER_PROXIMITY.length ? LASER_PROXIMITY[distance] : 0;
+    }
+}
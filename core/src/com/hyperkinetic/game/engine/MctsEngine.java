@@ -0,0 +1,408 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Monte Carlo Tree Search engine. Children are selected by UCT, and every new leaf is valued by a playout: a
+ * game of light-policy random turns played until a king is destroyed or {@link #MAX_PLAYOUT_TURNS} have passed.
+ *
+ * Playouts run in parallel on a ForkJoinPool and share one tree. A thread walking down the tree adds a virtual
+ * loss to every node it passes, so the other threads are steered towards other parts of the tree until its
+ * playout result is backed up.
+ *
+ * With a seed set and a playout budget the engine is reproducible: playouts run one after the other, in the same
+ * order every time, on the calling thread.
+ */
+public class MctsEngine implements SearchEngine
+{
+    /**
+     * Exploration constant of UCT.
+     */
+    public static final double EXPLORATION = 1.4;
+    /**
+     * Number of losses a thread adds to every node on its path while its playout is running.
+     */
+    public static final int VIRTUAL_LOSS = 3;
+    /**
+     * Length after which a playout is scored as a draw.
+     */
+    public static final int MAX_PLAYOUT_TURNS = 150;
+    /**
+     * Number of random moves the light policy looks at for a move that destroys the opposing king.
+     */
+    public static final int POLICY_SAMPLES = 4;
+    /**
+     * Number of playouts run when the limits set no budget.
+     */
+    public static final int DEFAULT_PLAYOUTS = 10000;
+    /**
+     * Number of playouts a worker runs between two checks of the budget.
+     */
+    private static final int BATCH = 64;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    /**
+     * Seed of the reproducible mode, or 0 for a parallel search.
+     */
+    private long seed;
+
+    private final AtomicLong playouts = new AtomicLong();
+    private volatile boolean stopped;
+    private long deadline;
+    private long maxPlayouts;
+
+    /**
+     * @param parallelism the number of playout threads
+     */
+    public MctsEngine(int parallelism)
+    {
+        this.parallelism = Math.max(1, parallelism);
+        pool = new ForkJoinPool(this.parallelism);
+    }
+
+    /**
+     * Makes the engine reproducible. Searches with a seed run their playouts on the calling thread, so the same
+     * seed and playout budget always give the same tree.
+     *
+     * @param seed the random seed, or 0 to search in parallel again
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Searches a position. The depth limit is ignored and the node limit counts playouts; without any limit
+     * {@link #DEFAULT_PLAYOUTS} playouts are run. The score of the result is the expected result of the move for
+     * the side to move, from -1000 (lost) to 1000 (won).
+     */
+    @Override
+    public SearchResult search(BoardState root, SearchLimits limits)
+    {
+        long start = System.currentTimeMillis();
+        deadline = limits.time > 0 ? start + limits.time : Long.MAX_VALUE;
+        maxPlayouts = limits.nodes > 0 ? limits.nodes : (limits.time > 0 ? Long.MAX_VALUE : DEFAULT_PLAYOUTS);
+        playouts.set(0);
+        stopped = false;
+
+        Node tree = new Node(Move.NONE, !root.isWhiteToMove(), null);
+
+        if(seed != 0)
+        {
+            new Worker(tree, root, new Random(seed)).invoke();
+        }
+        else
+        {
+            Worker[] workers = new Worker[parallelism];
+            Random seeds = new Random();
+            for(int i = 0; i < parallelism; i++)
+                workers[i] = new Worker(tree, root, new Random(seeds.nextLong()));
+            pool.invoke(new Workers(workers));
+        }
+
+        Node best = tree.mostVisited();
+        long time = System.currentTimeMillis() - start;
+        if(best == null) return new SearchResult(Move.NONE, 0, 0, playouts.get(), time);
+
+        int score = (int) Math.round((best.wins / best.visits * 2 - 1) * 1000);
+        return new SearchResult(best.move, score, tree.depth(), playouts.get(), time);
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Stops the worker threads for good.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return the number of playouts run by the current or last search
+     */
+    public long getPlayouts() {
+        return playouts.get();
+    }
+
+    private boolean budgetLeft() {
+        return !stopped && playouts.get() < maxPlayouts && System.currentTimeMillis() < deadline;
+    }
+
+    /**
+     * Node of the search tree. The statistics are written under the lock of the node and read without it.
+     */
+    private static class Node
+    {
+        /**
+         * The move leading to this node.
+         */
+        final int move;
+        /**
+         * The side that played {@link #move}; results are counted from its point of view.
+         */
+        final boolean white;
+        final Node parent;
+
+        /**
+         * Null until the node is expanded.
+         */
+        volatile Node[] children;
+        volatile int visits;
+        volatile double wins;
+        /**
+         * Result of the game if {@link #move} destroyed a king: 1 for a win of {@link #white}, 0 for a loss.
+         */
+        volatile double terminal = -1;
+
+        Node(int move, boolean white, Node parent)
+        {
+            this.move = move;
+            this.white = white;
+            this.parent = parent;
+        }
+
+        /**
+         * Picks the child with the highest UCT value; children never visited come first.
+         */
+        Node select()
+        {
+            Node[] list = children;
+            double logVisits = Math.log(Math.max(1, visits));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+
+            for(Node child : list)
+            {
+                int n = child.visits;
+                double value = n == 0 ? Double.POSITIVE_INFINITY :
+                        child.wins / n + EXPLORATION * Math.sqrt(logVisits / n);
+                if(value > bestValue)
+                {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        synchronized void addVirtualLoss() {
+            visits += VIRTUAL_LOSS;
+        }
+
+        /**
+         * Replaces the virtual loss by the real result.
+         *
+         * @param whiteResult the result of the playout for white: 1, 0.5 or 0
+         */
+        synchronized void update(double whiteResult)
+        {
+            visits += 1 - VIRTUAL_LOSS;
+            wins += white ? whiteResult : 1 - whiteResult;
+        }
+
+        Node mostVisited()
+        {
+            Node[] list = children;
+            if(list == null) return null;
+            Node best = null;
+            for(Node child : list)
+                if(best == null || child.visits > best.visits) best = child;
+            return best;
+        }
+
+        int depth()
+        {
+            Node best = mostVisited();
+            return best == null ? 0 : 1 + best.depth();
+        }
+    }
+
+    /**
+     * Runs all workers in parallel on the pool.
+     */
+    private static class Workers extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Worker[] workers;
+
+        Workers(Worker[] workers) {
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(Arrays.asList(workers));
+        }
+    }
+
+    /**
+     * Runs playouts on its own copy of the root position until the budget is spent.
+     */
+    private class Worker extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Node tree;
+        private final BoardState root;
+        private final BoardState state;
+        private final Random random;
+        private final LaserTrace trace;
+        private final int[] moves;
+
+        Worker(Node tree, BoardState root, Random random)
+        {
+            this.tree = tree;
+            this.root = root;
+            this.state = new BoardState(root);
+            this.random = random;
+            trace = new LaserTrace();
+            trace.setRecordSegments(false);
+            moves = new int[Move.MAX_MOVES];
+        }
+
+        @Override
+        protected void compute()
+        {
+            while(budgetLeft())
+            {
+                for(int i = 0; i < BATCH; i++)
+                    playout();
+                playouts.addAndGet(BATCH);
+            }
+        }
+
+        /**
+         * Runs a single playout: selection with virtual loss, expansion, a random game and backup.
+         */
+        private void playout()
+        {
+            state.set(root);
+            Node node = tree;
+            node.addVirtualLoss();
+
+            while(node.terminal < 0)
+            {
+                if(node.children == null)
+                {
+                    expand(node);
+                    if(node.children.length == 0) break;
+                }
+                node = node.select();
+                state.makeTurn(node.move, trace);
+                node.addVirtualLoss();
+
+                if(node.terminal < 0 && (!state.hasKing(true) || !state.hasKing(false)))
+                    node.terminal = winner() == node.white ? 1 : 0;
+                if(node.visits == VIRTUAL_LOSS) break;
+            }
+
+            double whiteResult;
+            if(node.terminal >= 0)
+                whiteResult = node.white ? node.terminal : 1 - node.terminal;
+            else
+                whiteResult = rollout();
+
+            for(; node != null; node = node.parent)
+                node.update(whiteResult);
+        }
+
+        private void expand(Node node)
+        {
+            synchronized(node)
+            {
+                if(node.children != null) return;
+                boolean white = state.isWhiteToMove();
+                int count = state.generateMoves(white, moves, 0);
+                Node[] children = new Node[count];
+                for(int i = 0; i < count; i++)
+                    children[i] = new Node(moves[i], white, node);
+                node.children = children;
+            }
+        }
+
+        /**
+         * Plays random turns until a king is destroyed. The light policy plays a move that destroys the opposing
+         * king whenever one of a few sampled moves does.
+         *
+         * @return the result for white: 1, 0.5 for a draw or 0
+         */
+        private double rollout()
+        {
+            for(int turn = 0; turn < MAX_PLAYOUT_TURNS; turn++)
+            {
+                if(!state.hasKing(false)) return 1;
+                if(!state.hasKing(true)) return 0;
+
+                boolean white = state.isWhiteToMove();
+                int count = state.generateMoves(white, moves, 0);
+                if(count == 0) return 0.5;
+
+                int move = moves[random.nextInt(count)];
+                for(int i = 0; i < POLICY_SAMPLES; i++)
+                {
+                    int candidate = moves[random.nextInt(count)];
+                    state.makeTurn(candidate, trace);
+                    boolean kills = trace.isKingDestroyed(!white);
+                    state.unmakeTurn();
+                    if(kills)
+                    {
+                        move = candidate;
+                        break;
+                    }
+                }
+                state.makeTurn(move, trace);
+            }
+            return 0.5;
+        }
+
+        /**
+         * @return the winner of a finished game, following the order of <code>getGameState()</code>
+         */
+        private boolean winner() {
+            return !state.hasKing(false);
+        }
+    }
+
+    /**
+     * Measures the playout speed on the benchmark positions. With a seed every position gets a fixed budget of
+     * {@link #DEFAULT_PLAYOUTS} playouts instead of a time limit, so the run can be repeated exactly.
+     *
+     * Usage: <code>MctsEngine [threads] [timeMillis] [seed]</code>
+     */
+    public static void main(String[] args)
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long time = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        MctsEngine engine = new MctsEngine(threads);
+        engine.setSeed(seed);
+        List<BoardState> positions = Benchmarks.positions();
+
+        long total = 0;
+        long totalTime = 0;
+        for(BoardState position : positions)
+        {
+            SearchResult result = engine.search(position,
+                    seed != 0 ? SearchLimits.nodes(DEFAULT_PLAYOUTS) : SearchLimits.time(time));
+            System.out.println(result);
+            total += result.nodes;
+            totalTime += result.time;
+        }
+        System.out.println("playouts " + total + ", playouts/sec " + (totalTime == 0 ? 0 : total * 1000 / totalTime));
+        engine.shutdown();
+    }
+}
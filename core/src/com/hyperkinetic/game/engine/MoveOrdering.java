@@ -0,0 +1,235 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Orders the moves of a position for {@link AlphaBetaEngine}. Moves are tried in this order:
+ * <ol>
+ *     <li>the move stored in the transposition table,</li>
+ *     <li>captures, that is moves after which the laser destroys an opposing piece, the most valuable victim first
+ *     and, for equal victims, the least valuable moved piece first,</li>
+ *     <li>the two killer moves of the ply, quiet moves that caused a cutoff in a sibling position,</li>
+ *     <li>the other moves, by their history: how often and how deep the same piece kind going to the same cell
+ *     with the same move type has caused a cutoff,</li>
+ *     <li>moves whose laser destroys the mover's own king and loses the game.</li>
+ * </ol>
+ *
+ * A move that leaves the path of the mover's laser alone fires the same shot as the laser would fire now, so the
+ * laser is traced once for the position and once more only for each move that touches its path.
+ */
+public class MoveOrdering
+{
+    private static final int HASH_SCORE = 1 << 30;
+    private static final int CAPTURE_SCORE = 1 << 28;
+    private static final int KILLER_SCORE = 1 << 26;
+    private static final int LOSING_SCORE = -(1 << 28);
+    /**
+     * History values are halved when one of them grows past this, so they stay below the killers.
+     */
+    private static final int HISTORY_MAX = 1 << 24;
+
+    /**
+     * Value of each victim, indexed by the {@link BoardState} kind. Destroying the king wins the game.
+     */
+    private static final int[] VICTIM_VALUES = { 1000, 0, 100, 120, 200 };
+
+    private final int[][] killers = new int[AlphaBetaEngine.MAX_PLY][2];
+    private final int[] history = new int[BoardState.KIND_COUNT * BoardState.MAX_CELLS * 3];
+    private final LaserTrace trace;
+
+    public MoveOrdering()
+    {
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+    }
+
+    /**
+     * Forgets the killers and ages the history before a new search.
+     */
+    public void newSearch()
+    {
+        for(int[] pair : killers)
+        {
+            pair[0] = Move.NONE;
+            pair[1] = Move.NONE;
+        }
+        for(int i = 0; i < history.length; i++)
+            history[i] >>= 1;
+    }
+
+    /**
+     * Forgets the killers and the whole history, so the next search does not depend on the ones before it.
+     */
+    public void clear()
+    {
+        newSearch();
+        Arrays.fill(history, 0);
+    }
+
+    /**
+     * Scores the moves of a position.
+     *
+     * @param state the position
+     * @param evaluation the incremental evaluation of the position, for the laser paths
+     * @param list the moves of the side to move
+     * @param scores receives the score of every move
+     * @param count the number of moves
+     * @param ply the distance from the root
+     * @param hashMove the move from the transposition table, or {@link Move#NONE}
+     */
+    public void score(BoardState state, Evaluation evaluation, int[] list, int[] scores, int count, int ply,
+                      int hashMove)
+    {
+        boolean white = state.isWhiteToMove();
+        trace.fire(state, white);
+        int standing = victimScore(trace, white);
+
+        for(int i = 0; i < count; i++)
+        {
+            int move = list[i];
+            if(move == hashMove)
+            {
+                scores[i] = HASH_SCORE;
+                continue;
+            }
+
+            int from = Move.from(move);
+            int attacker = state.getKind(from);
+            int victim = standing;
+            if(evaluation.isOnPath(white, from) || (!Move.isRotation(move) && evaluation.isOnPath(white, Move.to(move))))
+            {
+                state.makeMove(move);
+                trace.fire(state, white);
+                state.unmakeMove(move);
+                victim = victimScore(trace, white);
+            }
+
+            if(victim < 0)
+                scores[i] = LOSING_SCORE;
+            else if(victim > 0)
+                scores[i] = CAPTURE_SCORE + victim * 256 - Evaluator.PIECE_VALUES[attacker];
+            else if(move == killers[ply][0])
+                scores[i] = KILLER_SCORE + 1;
+            else if(move == killers[ply][1])
+                scores[i] = KILLER_SCORE;
+            else
+                scores[i] = history[historyIndex(attacker, move)];
+        }
+    }
+
+    /**
+     * Brings the best scored of the moves not tried yet to a position of the list.
+     *
+     * @param index the position, every move before it has been tried
+     */
+    public static void pick(int[] list, int[] scores, int index, int count)
+    {
+        int best = index;
+        for(int i = index + 1; i < count; i++)
+            if(scores[i] > scores[best]) best = i;
+
+        int move = list[best];
+        list[best] = list[index];
+        list[index] = move;
+        int score = scores[best];
+        scores[best] = scores[index];
+        scores[index] = score;
+    }
+
+    /**
+     * Remembers a move that caused a cutoff. Only quiet moves become killers or earn history.
+     *
+     * @param state the position the move was played in
+     * @param move the move
+     * @param score the score the move was given by {@link #score}
+     * @param depth the remaining depth of the search
+     * @param ply the distance from the root
+     */
+    public void cutoff(BoardState state, int move, int score, int depth, int ply)
+    {
+        if(score >= CAPTURE_SCORE && score < HASH_SCORE) return;
+
+        if(killers[ply][0] != move)
+        {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+
+        int index = historyIndex(state.getKind(Move.from(move)), move);
+        history[index] += depth * depth;
+        if(history[index] > HISTORY_MAX)
+            for(int i = 0; i < history.length; i++)
+                history[i] >>= 1;
+    }
+
+    private static int historyIndex(int kind, int move) {
+        return (kind * BoardState.MAX_CELLS + Move.to(move)) * 3 + Move.type(move);
+    }
+
+    /**
+     * @return the value of the most valuable opposing piece a shot destroys, 0 if it destroys none, or -1 if the shot
+     * loses the game for the mover
+     */
+    private static int victimScore(LaserTrace shot, boolean white)
+    {
+        // the black king is checked first, so white wins when both kings are destroyed
+        boolean enemyKing = shot.isKingDestroyed(!white);
+        if(shot.isKingDestroyed(white) && !(white && enemyKing)) return -1;
+
+        int retval = 0;
+        for(int i = 0; i < shot.getDestroyedCount(); i++)
+        {
+            int piece = shot.getDestroyed(i);
+            if(LaserTrace.isWhite(piece) != white)
+                retval = Math.max(retval, VICTIM_VALUES[LaserTrace.kindOf(piece)]);
+        }
+        return retval;
+    }
+
+    /**
+     * Measures the ordering: searches the benchmark positions to a fixed depth with and without it and prints the
+     * nodes of both searches and the reduction.
+     *
+     * Usage: <code>MoveOrdering [depth] [tableMB]</code>
+     */
+    public static void main(String[] args)
+    {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        List<BoardState> positions = Benchmarks.positions();
+        long plainTotal = 0;
+        long orderedTotal = 0;
+        long plainTime = 0;
+        long orderedTime = 0;
+
+        for(int i = 0; i < positions.size(); i++)
+        {
+            AlphaBetaEngine plain = new AlphaBetaEngine(megabytes);
+            plain.setMoveOrdering(false);
+            SearchResult before = plain.search(positions.get(i), SearchLimits.depth(depth));
+
+            AlphaBetaEngine ordered = new AlphaBetaEngine(megabytes);
+            SearchResult after = ordered.search(positions.get(i), SearchLimits.depth(depth));
+
+            System.out.println(String.format("position %d: nodes %10d -> %10d (%5.1f%%), time %6dms -> %6dms",
+                    i, before.nodes, after.nodes, reduction(before.nodes, after.nodes), before.time, after.time));
+            plainTotal += before.nodes;
+            orderedTotal += after.nodes;
+            plainTime += before.time;
+            orderedTime += after.time;
+        }
+
+        System.out.println(String.format("total:      nodes %10d -> %10d (%5.1f%%), time %6dms -> %6dms",
+                plainTotal, orderedTotal, reduction(plainTotal, orderedTotal), plainTime, orderedTime));
+    }
+
+    private static double reduction(long before, long after) {
+        return before == 0 ? 0 : 100.0 * (before - after) / before;
+    }
+}
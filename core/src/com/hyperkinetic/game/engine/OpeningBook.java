@@ -0,0 +1,429 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A book of opening moves, stored in a binary file that is memory-mapped rather than read onto the heap.
+ *
+ * The file starts with a magic number and the number of entries, followed by the entries sorted by position key.
+ * Each entry is 16 bytes: the key of a position (8 bytes), a move played from it (4 bytes) and the number of
+ * recorded games that played it (4 bytes). Looking up a position is a binary search over the mapped entries;
+ * reads use absolute positions only, so any number of threads can probe the same book.
+ *
+ * Books are built offline from game records: text files with one game per line, each game written as the move
+ * codes of its turns (see {@link Move}) separated by spaces, played from the start of the StandardBoard.
+ */
+public class OpeningBook
+{
+    /**
+     * The file a book is looked for in by {@link #openDefault()}.
+     */
+    public static final String DEFAULT_FILE = "opening.book";
+    /**
+     * Number of turns of each game recorded in a book by default.
+     */
+    public static final int DEFAULT_PLIES = 12;
+    /**
+     * Games that played a move fewer times than this are left out of a book by default.
+     */
+    public static final int DEFAULT_MIN_COUNT = 2;
+
+    private static final int MAGIC = 0x4C424B31;
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 16;
+
+    private final MappedByteBuffer entries;
+    private final int count;
+
+    private OpeningBook(MappedByteBuffer entries)
+    {
+        this.entries = entries;
+        entries.order(ByteOrder.BIG_ENDIAN);
+        if(entries.capacity() < HEADER_BYTES || entries.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not an opening book");
+        count = entries.getInt(4);
+        if(entries.capacity() < HEADER_BYTES + (long) count * ENTRY_BYTES)
+            throw new IllegalArgumentException("Opening book is truncated");
+    }
+
+    /**
+     * Maps a book file into memory.
+     *
+     * @param file the book
+     * @return the book
+     * @throws IOException if the file cannot be read
+     */
+    public static OpeningBook open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the channel is closed
+            return new OpeningBook(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the book in {@link #DEFAULT_FILE}, or null if there is none or it cannot be read
+     */
+    public static OpeningBook openDefault()
+    {
+        File file = new File(DEFAULT_FILE);
+        if(!file.isFile()) return null;
+        try {
+            return open(file);
+        } catch(IOException | IllegalArgumentException e) {
+            System.out.println("Unable to open opening book: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of (position, move) entries in the book
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Picks a book move for a position, at random in proportion to how often it was played.
+     *
+     * @param state the position
+     * @return a legal move, or {@link Move#NONE} if the position is not in the book
+     */
+    public int probe(BoardState state) {
+        return probe(state, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Picks a book move for a position, at random in proportion to how often it was played.
+     *
+     * @param state the position
+     * @param random the source of the choice
+     * @return a legal move, or {@link Move#NONE} if the position is not in the book
+     */
+    public int probe(BoardState state, Random random)
+    {
+        int first = find(state.getKey());
+        if(first < 0) return Move.NONE;
+
+        long total = 0;
+        int end = first;
+        for(; end < count && keyAt(end) == state.getKey(); end++)
+            if(state.isLegalMove(state.isWhiteToMove(), moveAt(end))) total += weightAt(end);
+        if(total == 0) return Move.NONE;
+
+        long pick = (long) (random.nextDouble() * total);
+        for(int i = first; i < end; i++)
+        {
+            if(!state.isLegalMove(state.isWhiteToMove(), moveAt(i))) continue;
+            pick -= weightAt(i);
+            if(pick < 0) return moveAt(i);
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * @param key the key of a position
+     * @return the moves stored for the position, most played first
+     */
+    public int[] moves(long key)
+    {
+        int first = find(key);
+        if(first < 0) return new int[0];
+        int end = first;
+        while(end < count && keyAt(end) == key) end++;
+
+        int[] retval = new int[end - first];
+        for(int i = first; i < end; i++)
+            retval[i - first] = moveAt(i);
+        return retval;
+    }
+
+    /**
+     * @return the index of the first entry of a key, or -1 if the key is not in the book
+     */
+    private int find(long key)
+    {
+        int low = 0;
+        int high = count;
+        while(low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if(keyAt(mid) < key) low = mid + 1;
+            else high = mid;
+        }
+        return low < count && keyAt(low) == key ? low : -1;
+    }
+
+    private long keyAt(int index) {
+        return entries.getLong(HEADER_BYTES + index * ENTRY_BYTES);
+    }
+
+    private int moveAt(int index) {
+        return entries.getInt(HEADER_BYTES + index * ENTRY_BYTES + 8);
+    }
+
+    private int weightAt(int index) {
+        return entries.getInt(HEADER_BYTES + index * ENTRY_BYTES + 12);
+    }
+
+    /**
+     * Builds a book from game records.
+     *
+     * @param games the moves of every game, from the start of the StandardBoard
+     * @param plies the number of turns of each game to record
+     * @param minCount the number of games that must have played a move for it to be kept
+     * @param out the book file to write
+     * @return the number of entries written
+     * @throws IOException if the file cannot be written
+     */
+    public static int build(List<int[]> games, int plies, int minCount, File out) throws IOException
+    {
+        BoardState start = new StandardBoard(true).getState();
+        BoardState state = new BoardState(start);
+        LaserTrace trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        Map<Entry, Entry> counts = new HashMap<>();
+
+        for(int[] game : games)
+        {
+            state.set(start);
+            for(int ply = 0; ply < plies && ply < game.length; ply++)
+            {
+                int move = game[ply];
+                if(!state.hasKing(true) || !state.hasKing(false)) break;
+                if(!state.isLegalMove(state.isWhiteToMove(), move))
+                    throw new IllegalArgumentException("Illegal move " + Move.toString(move) + " in game record");
+
+                Entry entry = new Entry(state.getKey(), move);
+                Entry known = counts.get(entry);
+                if(known == null) counts.put(entry, entry);
+                else known.weight++;
+
+                state.makeTurn(move, trace);
+            }
+        }
+
+        List<Entry> kept = new ArrayList<>();
+        for(Entry entry : counts.values())
+            if(entry.weight >= minCount) kept.add(entry);
+        Entry[] sorted = kept.toArray(new Entry[kept.size()]);
+        Arrays.sort(sorted);
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(sorted.length);
+            for(Entry entry : sorted)
+            {
+                dos.writeLong(entry.key);
+                dos.writeInt(entry.move);
+                dos.writeInt(entry.weight);
+            }
+        } finally {
+            dos.close();
+        }
+        return sorted.length;
+    }
+
+    /**
+     * Reads game records, one game of space separated move codes per line.
+     */
+    public static List<int[]> readGames(File file) throws IOException
+    {
+        List<int[]> retval = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while((line = br.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\\s+");
+                int[] game = new int[parts.length];
+                for(int i = 0; i < parts.length; i++)
+                    game[i] = Integer.parseInt(parts[i]);
+                retval.add(game);
+            }
+        } finally {
+            br.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Records games of the engine against itself. The first turns of every game are random, so the games spread
+     * over many openings, and the engine plays the rest.
+     *
+     * @param file the records file to write
+     * @param games the number of games
+     * @param randomPlies the number of random turns at the start of each game
+     * @param plies the number of turns to record per game
+     * @param depth the search depth of the engine
+     * @param seed the seed of the random turns
+     */
+    public static void recordSelfPlay(File file, int games, int randomPlies, int plies, int depth, long seed)
+            throws IOException
+    {
+        BoardState start = new StandardBoard(true).getState();
+        AlphaBetaEngine engine = new AlphaBetaEngine(16);
+        LaserTrace trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        Random random = new Random(seed);
+        int[] moves = new int[Move.MAX_MOVES];
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            for(int game = 0; game < games; game++)
+            {
+                BoardState state = new BoardState(start);
+                StringBuilder line = new StringBuilder();
+                for(int ply = 0; ply < plies && state.hasKing(true) && state.hasKing(false); ply++)
+                {
+                    int move;
+                    if(ply < randomPlies)
+                    {
+                        int count = state.generateMoves(state.isWhiteToMove(), moves, 0);
+                        move = moves[random.nextInt(count)];
+                    }
+                    else move = engine.search(state, SearchLimits.depth(depth)).move;
+
+                    if(line.length() > 0) line.append(' ');
+                    line.append(move);
+                    state.makeTurn(move, trace);
+                }
+                bw.write(line.toString());
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * A move played from a position, counted while a book is built.
+     */
+    private static class Entry implements Comparable<Entry>
+    {
+        final long key;
+        final int move;
+        int weight = 1;
+
+        Entry(long key, int move)
+        {
+            this.key = key;
+            this.move = move;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof Entry)) return false;
+            Entry entry = (Entry) other;
+            return key == entry.key && move == entry.move;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (key ^ (key >>> 32)) * 31 + move;
+        }
+
+        /**
+         * By key, then the most played move first.
+         */
+        @Override
+        public int compareTo(Entry other)
+        {
+            if(key != other.key) return key < other.key ? -1 : 1;
+            return other.weight - weight;
+        }
+    }
+
+    /**
+     * Builds and measures opening books.
+     *
+     * Usage:
+     * <ul>
+     *     <li><code>OpeningBook record [records] [games] [randomPlies] [depth]</code> writes self-play records,</li>
+     *     <li><code>OpeningBook build [records] [book] [plies] [minCount]</code> builds a book from records,</li>
+     *     <li><code>OpeningBook probe [book]</code> measures the lookup time.</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String command = args.length > 0 ? args[0] : "probe";
+
+        if(command.equals("record"))
+        {
+            File records = new File(args.length > 1 ? args[1] : "games.txt");
+            int games = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            int randomPlies = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+            int depth = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+            long start = System.currentTimeMillis();
+            recordSelfPlay(records, games, randomPlies, DEFAULT_PLIES, depth, 1);
+            System.out.println("recorded " + games + " games in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        else if(command.equals("build"))
+        {
+            File records = new File(args.length > 1 ? args[1] : "games.txt");
+            File book = new File(args.length > 2 ? args[2] : DEFAULT_FILE);
+            int plies = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PLIES;
+            int minCount = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MIN_COUNT;
+            int entries = build(readGames(records), plies, minCount, book);
+            System.out.println("wrote " + entries + " entries, " + book.length() + " bytes to " + book);
+        }
+        else
+        {
+            OpeningBook book = open(new File(args.length > 1 ? args[1] : DEFAULT_FILE));
+            BoardState state = new StandardBoard(true).getState();
+            LaserTrace trace = new LaserTrace();
+            trace.setRecordSegments(false);
+            Random random = new Random(1);
+
+            // follow book lines from the start until they leave the book, over and over
+            int lookups = 1000000;
+            int found = 0;
+            long start = System.nanoTime();
+            for(int i = 0; i < lookups; i++)
+            {
+                int move = book.probe(state, random);
+                if(move == Move.NONE || state.getTurnCount() >= DEFAULT_PLIES)
+                {
+                    while(state.getTurnCount() > 0) state.unmakeTurn();
+                    continue;
+                }
+                found++;
+                state.makeTurn(move, trace);
+            }
+            long time = System.nanoTime() - start;
+            System.out.println(String.format("%d entries, %d lookups (%d in book), %.2f us per lookup",
+                    book.size(), lookups, found, time / 1000.0 / lookups));
+        }
+    }
+}
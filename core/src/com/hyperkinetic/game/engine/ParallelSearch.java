@@ -0,0 +1,204 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.Move;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A parallel search in the Lazy SMP style: every thread runs its own {@link AlphaBetaEngine} on the same root
+ * position, and the threads only cooperate through a shared {@link TranspositionTable}. The calling thread is the
+ * main thread; it owns the budget of the search, and the helpers are stopped as soon as it finishes.
+ */
+public class ParallelSearch implements SearchEngine
+{
+    private final TranspositionTable table;
+    private final AlphaBetaEngine[] engines;
+    /**
+     * Runs the helper engines; null when searching with a single thread.
+     */
+    private final ExecutorService helpers;
+    /**
+     * Opening book consulted before searching, or null.
+     */
+    private OpeningBook book;
+
+    /**
+     * @param threads the number of search threads, including the calling thread
+     * @param megabytes the size of the shared transposition table
+     */
+    public ParallelSearch(int threads, int megabytes)
+    {
+        if(threads < 1) throw new IllegalArgumentException("At least one search thread is needed");
+
+        table = new TranspositionTable(megabytes);
+        engines = new AlphaBetaEngine[threads];
+        for(int i = 0; i < threads; i++)
+        {
+            engines[i] = new AlphaBetaEngine(table);
+            engines[i].setHelper(i);
+        }
+
+        if(threads == 1)
+        {
+            helpers = null;
+        }
+        else
+        {
+            helpers = Executors.newFixedThreadPool(threads - 1, new ThreadFactory()
+            {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "search helper " + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    public int getThreads() {
+        return engines.length;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Searches a position with every thread. The result is the one of the main thread, with the nodes of all
+     * threads added up.
+     */
+    @Override
+    public SearchResult search(final BoardState root, SearchLimits limits)
+    {
+        if(book != null)
+        {
+            int move = book.probe(root);
+            if(move != Move.NONE) return new SearchResult(move, 0, 0, 0, 0);
+        }
+
+        // helpers search until the main thread stops them, or until its deadline in case they miss the stop
+        final SearchLimits helperLimits = new SearchLimits(limits.depth > 0 ? limits.depth + 1 : 0, 0, limits.time);
+
+        // the flags are cleared here rather than in the helpers, so a stop sent before a helper starts still counts
+        for(AlphaBetaEngine engine : engines)
+            engine.clearStop();
+
+        List<Future<SearchResult>> futures = new ArrayList<>();
+        for(int i = 1; i < engines.length; i++)
+        {
+            final AlphaBetaEngine engine = engines[i];
+            futures.add(helpers.submit(new Callable<SearchResult>()
+            {
+                @Override
+                public SearchResult call() {
+                    return engine.run(root, helperLimits);
+                }
+            }));
+        }
+
+        SearchResult main = engines[0].run(root, limits);
+
+        long nodes = main.nodes;
+        for(int i = 1; i < engines.length; i++)
+            engines[i].stop();
+        for(Future<SearchResult> future : futures)
+        {
+            try {
+                nodes += future.get().nodes;
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException ee) {
+                throw new RuntimeException(ee.getCause());
+            }
+        }
+
+        return new SearchResult(main.move, main.score, main.depth, nodes, main.time);
+    }
+
+    /**
+     * Plays moves from an opening book without searching while the position is in it.
+     *
+     * @param book the book, or null to always search
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Scores the positions covered by endgame tables from the tables instead of searching them.
+     *
+     * @param tablebases the tables, or null to search every position
+     */
+    public void setTablebases(Tablebases tablebases)
+    {
+        for(AlphaBetaEngine engine : engines)
+            engine.setTablebases(tablebases);
+    }
+
+    @Override
+    public void stop()
+    {
+        for(AlphaBetaEngine engine : engines)
+            engine.stop();
+    }
+
+    /**
+     * Stops the helper threads for good.
+     */
+    public void shutdown() {
+        if(helpers != null) helpers.shutdownNow();
+    }
+
+    /**
+     * Measures how the search scales with the number of threads: searches a set of positions to a fixed depth with
+     * 1, 2, 4, ... threads and prints the time, the nodes per second and the speedup over one thread.
+     *
+     * Usage: <code>ParallelSearch [maxThreads] [depth] [tableMB]</code>
+     */
+    public static void main(String[] args)
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        List<BoardState> positions = Benchmarks.positions();
+        long baseTime = 0;
+
+        // warm up the JIT compiler so the single thread run is not measured cold
+        for(BoardState position : positions)
+            new AlphaBetaEngine(megabytes).search(position, SearchLimits.depth(depth));
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            long time = 0;
+            long nodes = 0;
+            for(BoardState position : positions)
+            {
+                ParallelSearch search = new ParallelSearch(threads, megabytes);
+                SearchResult result = search.search(position, SearchLimits.depth(depth));
+                search.shutdown();
+                time += result.time;
+                nodes += result.nodes;
+            }
+
+            if(threads == 1) baseTime = time;
+            System.out.println(String.format("threads %2d: time %6dms, nodes %10d, nps %9d, speedup %.2f",
+                    threads, time, nodes, time == 0 ? 0 : nodes * 1000 / time,
+                    time == 0 ? 0 : (double) baseTime / time));
+
+            if(threads < maxThreads && threads * 2 > maxThreads) threads = maxThreads / 2;
+        }
+    }
+}
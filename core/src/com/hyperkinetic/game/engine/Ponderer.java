@@ -0,0 +1,172 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+/**
+ * Thinks on the opponent's time. After the engine has played its move, the ponderer predicts the opponent's reply
+ * from the transposition table and searches the position after it on a background thread. When the real reply
+ * arrives and matches the prediction, the search already running is given whatever is left of the move's time
+ * budget instead of starting over; when it does not match, the background search is stopped and a normal search
+ * is run, which still finds the positions the background search stored in the shared table.
+ *
+ * The ponderer counts its predictions, how many of them were right, and the time the right ones saved.
+ */
+public class Ponderer
+{
+    private final SearchEngine engine;
+    private final TranspositionTable table;
+    private final LaserTrace trace;
+
+    private Thread thread;
+    /**
+     * Key of the position being searched in the background.
+     */
+    private long ponderKey;
+    private long ponderStart;
+    private volatile SearchResult ponderResult;
+
+    private long predictions;
+    private long hits;
+    private long savedTime;
+
+    /**
+     * @param engine the engine that plays the moves
+     * @param table the transposition table the engine searches with
+     */
+    public Ponderer(SearchEngine engine, TranspositionTable table)
+    {
+        this.engine = engine;
+        this.table = table;
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+    }
+
+    /**
+     * @param engine the parallel search that plays the moves
+     */
+    public Ponderer(ParallelSearch engine) {
+        this(engine, engine.getTable());
+    }
+
+    /**
+     * Starts searching the predicted position in the background. Does nothing if the table has no move for the
+     * opponent or the game is over.
+     *
+     * @param state the position after the engine's own turn, with the opponent to move
+     */
+    public synchronized void ponder(BoardState state)
+    {
+        stop();
+        if(!state.hasKing(true) || !state.hasKing(false)) return;
+
+        long entry = table.probe(state.getKey());
+        int reply = entry == 0 ? Move.NONE : TranspositionTable.move(entry);
+        if(!state.isLegalMove(state.isWhiteToMove(), reply)) return;
+
+        final BoardState predicted = new BoardState(state);
+        predicted.makeTurn(reply, trace);
+        if(!predicted.hasKing(true) || !predicted.hasKing(false)) return;
+
+        predictions++;
+        ponderKey = predicted.getKey();
+        ponderStart = System.currentTimeMillis();
+        ponderResult = null;
+        thread = new Thread("ponder")
+        {
+            @Override
+            public void run() {
+                ponderResult = engine.search(predicted, new SearchLimits(0, 0, 0));
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Finds the engine's move for the position reached by the opponent's real reply.
+     *
+     * @param state the position after the opponent's turn
+     * @param limits the budget of the move; only its time limit is used on a correct prediction
+     * @return the move to play
+     */
+    public synchronized SearchResult respond(BoardState state, SearchLimits limits)
+    {
+        // without a time limit the background search cannot be cut to the budget
+        if(thread == null || state.getKey() != ponderKey || limits.time <= 0)
+        {
+            stop();
+            return engine.search(state, limits);
+        }
+
+        // the prediction was right: the background search has already used part of the budget
+        long start = System.currentTimeMillis();
+        long remaining = limits.time - (start - ponderStart);
+        if(remaining > 0)
+        {
+            try {
+                thread.join(remaining);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stop();
+
+        SearchResult result = ponderResult;
+        if(result == null || result.move == Move.NONE) return engine.search(state, limits);
+
+        hits++;
+        savedTime += Math.max(0, limits.time - (System.currentTimeMillis() - start));
+        return result;
+    }
+
+    /**
+     * Stops the background search, if there is one, and waits for it to finish.
+     */
+    public synchronized void stop()
+    {
+        if(thread == null) return;
+        // the search may not have started yet, and starting it clears the stop of the engine
+        while(thread.isAlive())
+        {
+            engine.stop();
+            try {
+                thread.join(10);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        thread = null;
+    }
+
+    public long getPredictions() {
+        return predictions;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the fraction of predicted replies that were played, 0 if nothing was predicted
+     */
+    public double getHitRate() {
+        return predictions == 0 ? 0 : (double) hits / predictions;
+    }
+
+    /**
+     * @return the response time saved by correct predictions, in milliseconds
+     */
+    public long getSavedTime() {
+        return savedTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ponder hits %d/%d (%.0f%%), saved %dms", hits, predictions, getHitRate() * 100,
+                savedTime);
+    }
+}
@@ -0,0 +1,433 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mines puzzles from games on the StandardBoard: positions in which exactly one move of the side to move forces the
+ * destruction of the opposing KingPiece in the fewest turns.
+ *
+ * The generator is a pipeline of threads joined by bounded queues, so positions stream through it and memory only
+ * grows by the eight bytes the duplicate filter keeps for each distinct position:
+ * <ol>
+ *     <li>a source plays games of the engine against itself, or replays recorded games, and queues every
+ *     position;</li>
+ *     <li>solvers drop positions seen before, by position key, and look for the shortest forced win with the
+ *     {@link PuzzleSolver}; a position is a candidate when exactly one move achieves it;</li>
+ *     <li>every candidate is verified by an alpha-beta search two turns deeper than the win, which must find the
+ *     same move and a won score;</li>
+ *     <li>a writer appends the puzzles to a file, one per line: the position as written by
+ *     {@link BoardState#toText()}, the number of turns and the winning move.</li>
+ * </ol>
+ * The positions of the puzzles already in the file are put in the duplicate filter first, so running the generator
+ * again adds new puzzles only.
+ */
+public class PuzzleGenerator
+{
+    /**
+     * Most turns a puzzle can take to win by default.
+     */
+    public static final int DEFAULT_MAX_TURNS = 2;
+    /**
+     * Number of random turns that open every self-play game, so the games differ.
+     */
+    public static final int RANDOM_PLIES = 6;
+    /**
+     * Length after which a self-play game is given up.
+     */
+    public static final int MAX_GAME_TURNS = 200;
+    /**
+     * Size in MB of the transposition table of each verifying engine.
+     */
+    public static final int TABLE_SIZE = 8;
+    /**
+     * Number of position keys the duplicate filter starts with room for; it doubles when three quarters full.
+     */
+    public static final int SEEN_CAPACITY = 1 << 20;
+
+    /**
+     * Ends the stream of positions; one is queued for every solver.
+     */
+    private static final BoardState END = new BoardState(1, 1);
+    /**
+     * Ends the stream of puzzles; never a puzzle line.
+     */
+    private static final String END_LINE = "";
+    private static final int QUEUE_SIZE = 1024;
+
+    private final int maxTurns;
+    private final int threads;
+    private final PuzzleSolver solver;
+
+    /**
+     * Keys of the positions seen, in an open-addressed table guarded by the lock of the generator; 0 marks an empty slot. A
+     * lookup is tiny next to solving the position, so the solvers hardly wait for each other here.
+     */
+    private long[] seen = new long[SEEN_CAPACITY];
+    private int seenCount;
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong candidates = new AtomicLong();
+    private final AtomicLong puzzles = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxTurns the most turns a puzzle can take to win
+     * @param threads the number of solver threads
+     */
+    public PuzzleGenerator(int maxTurns, int threads)
+    {
+        this.maxTurns = maxTurns;
+        this.threads = Math.max(1, threads);
+        // the solver is only used for its shared result table; its own threads stay idle
+        solver = new PuzzleSolver(1, 64);
+    }
+
+    /**
+     * A source of positions, run on its own thread.
+     */
+    public interface Source
+    {
+        /**
+         * Queues positions until there are no more.
+         */
+        void produce(BlockingQueue<BoardState> queue) throws IOException, InterruptedException;
+    }
+
+    /**
+     * @return a source playing games of a shallow engine against itself, from seeded random openings
+     */
+    public static Source selfPlay(final int games, final int depth, final long seed)
+    {
+        return new Source()
+        {
+            @Override
+            public void produce(BlockingQueue<BoardState> queue) throws InterruptedException
+            {
+                AlphaBetaEngine engine = new AlphaBetaEngine(TABLE_SIZE);
+                LaserTrace trace = new LaserTrace();
+                trace.setRecordSegments(false);
+                int[] moves = new int[Move.MAX_MOVES];
+
+                for(int game = 0; game < games; game++)
+                {
+                    Random random = new Random(seed * 1000003 + game);
+                    BoardState state = new StandardBoard(true).getState();
+                    for(int turn = 0; turn < MAX_GAME_TURNS && state.hasKing(true) && state.hasKing(false); turn++)
+                    {
+                        int move;
+                        if(turn < RANDOM_PLIES)
+                        {
+                            int count = state.generateMoves(state.isWhiteToMove(), moves, 0);
+                            move = moves[random.nextInt(count)];
+                        }
+                        else
+                        {
+                            queue.put(new BoardState(state));
+                            move = engine.search(state, SearchLimits.depth(depth)).move;
+                            if(move == Move.NONE) break;
+                        }
+                        state.makeTurn(move, trace);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a source replaying the games of a records file, as written by
+     * {@link OpeningBook#recordSelfPlay}, one line at a time
+     */
+    public static Source replay(final File file)
+    {
+        return new Source()
+        {
+            @Override
+            public void produce(BlockingQueue<BoardState> queue) throws IOException, InterruptedException
+            {
+                BoardState start = new StandardBoard(true).getState();
+                LaserTrace trace = new LaserTrace();
+                trace.setRecordSegments(false);
+                BufferedReader br = new BufferedReader(new FileReader(file));
+                try {
+                    String line;
+                    while((line = br.readLine()) != null)
+                    {
+                        line = line.trim();
+                        if(line.isEmpty() || line.startsWith("#")) continue;
+                        BoardState state = new BoardState(start);
+                        for(String part : line.split("\\s+"))
+                        {
+                            int move = Integer.parseInt(part);
+                            if(!state.hasKing(true) || !state.hasKing(false) ||
+                                    !state.isLegalMove(state.isWhiteToMove(), move))
+                                break;
+                            queue.put(new BoardState(state));
+                            state.makeTurn(move, trace);
+                        }
+                    }
+                } finally {
+                    br.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs the pipeline until the source is exhausted.
+     *
+     * @param source where the positions come from
+     * @param out the file to append the puzzles to
+     */
+    public void run(final Source source, File out) throws IOException, InterruptedException
+    {
+        final BlockingQueue<BoardState> positions = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final BlockingQueue<String> results = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        if(out.exists()) System.out.println(loadSeen(out) + " puzzles already in " + out);
+        final BufferedWriter bw = new BufferedWriter(new FileWriter(out, true));
+        long start = System.currentTimeMillis();
+
+        Thread producer = new Thread("puzzle source")
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    source.produce(positions);
+                } catch(IOException ioe) {
+                    System.out.println("Could not read the positions: " + ioe.getMessage());
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    try {
+                        for(int i = 0; i < threads; i++)
+                            positions.put(END);
+                    } catch(InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+
+        List<Thread> workers = new ArrayList<>();
+        for(int i = 0; i < threads; i++)
+        {
+            workers.add(new Thread("puzzle solver " + i)
+            {
+                @Override
+                public void run()
+                {
+                    AlphaBetaEngine engine = new AlphaBetaEngine(TABLE_SIZE);
+                    try {
+                        for(BoardState state = positions.take(); state != END; state = positions.take())
+                        {
+                            String puzzle = examine(state, engine);
+                            if(puzzle != null) results.put(puzzle);
+                        }
+                    } catch(InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        Thread writer = new Thread("puzzle writer")
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    for(String line = results.take(); !line.equals(END_LINE); line = results.take())
+                    {
+                        bw.write(line);
+                        bw.newLine();
+                    }
+                } catch(IOException ioe) {
+                    System.out.println("Could not write the puzzles: " + ioe.getMessage());
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        producer.start();
+        for(Thread worker : workers)
+            worker.start();
+        writer.start();
+
+        // report while the pipeline runs
+        while(producer.isAlive())
+        {
+            producer.join(10000);
+            if(producer.isAlive()) System.out.println(progress(start));
+        }
+        for(Thread worker : workers)
+            worker.join();
+        results.put(END_LINE);
+        writer.join();
+        bw.close();
+        solver.shutdown();
+        System.out.println(progress(start));
+    }
+
+    /**
+     * Looks for a puzzle in a position.
+     *
+     * @return the line to write for the puzzle, or null if the position is not one
+     */
+    String examine(BoardState state, AlphaBetaEngine engine)
+    {
+        scanned.incrementAndGet();
+        if(!firstSeen(state.getKey()))
+        {
+            duplicates.incrementAndGet();
+            return null;
+        }
+
+        // the shortest win must have exactly one first move
+        for(int turns = 1; turns <= maxTurns; turns++)
+        {
+            int[] winning = solver.winningMoves(state, turns);
+            if(winning.length == 0) continue;
+            if(winning.length > 1) return null;
+
+            candidates.incrementAndGet();
+            engine.getTable().clear();
+            SearchResult result = engine.search(state, SearchLimits.depth(2 * turns + 1));
+            if(result.move != winning[0] || result.score != AlphaBetaEngine.WIN - (2 * turns - 1))
+            {
+                rejected.incrementAndGet();
+                return null;
+            }
+
+            puzzles.incrementAndGet();
+            return state.toText() + "\t" + turns + "\t" + Move.toString(winning[0], state.getWidth());
+        }
+        return null;
+    }
+
+    /**
+     * Puts the positions of the puzzles in a file in the duplicate filter.
+     *
+     * @return the number of puzzles read
+     */
+    int loadSeen(File file) throws IOException
+    {
+        int count = 0;
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while((line = br.readLine()) != null)
+            {
+                if(line.trim().isEmpty()) continue;
+                try {
+                    firstSeen(BoardState.fromText(line.split("\t")[0]).getKey());
+                    count++;
+                } catch(IllegalArgumentException iae) {
+                    System.out.println("Skipping a line of " + file + ": " + iae.getMessage());
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return count;
+    }
+
+    /**
+     * Adds a key to the duplicate filter, growing it when it gets full.
+     *
+     * @return false if the key was already there
+     */
+    private synchronized boolean firstSeen(long key)
+    {
+        if(key == 0) key = 1;
+        if(!insert(seen, key)) return false;
+
+        if(++seenCount > seen.length / 4 * 3)
+        {
+            long[] grown = new long[seen.length * 2];
+            for(long old : seen)
+                if(old != 0) insert(grown, old);
+            seen = grown;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key to an open-addressed table with room to spare.
+     *
+     * @return false if the key was already there
+     */
+    private static boolean insert(long[] table, long key)
+    {
+        int mask = table.length - 1;
+        for(int index = (int) (key ^ (key >>> 32)) & mask; ; index = (index + 1) & mask)
+        {
+            if(table[index] == key) return false;
+            if(table[index] == 0)
+            {
+                table[index] = key;
+                return true;
+            }
+        }
+    }
+
+    private String progress(long start)
+    {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        return String.format("%d positions (%d duplicates), %d candidates, %d puzzles, %d rejected by search; " +
+                "%.0f positions/sec, %.0f solver nodes/sec", scanned.get(), duplicates.get(), candidates.get(),
+                puzzles.get(), rejected.get(), scanned.get() * 1000.0 / elapsed, solver.getNodes() * 1000.0 / elapsed);
+    }
+
+    /**
+     * Usage:
+     * <ul>
+     *     <li><code>PuzzleGenerator selfplay out games [depth] [maxTurns] [threads] [seed]</code></li>
+     *     <li><code>PuzzleGenerator replay out records [maxTurns] [threads]</code></li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 3)
+        {
+            System.out.println("Usage: PuzzleGenerator selfplay out games [depth] [maxTurns] [threads] [seed]");
+            System.out.println("       PuzzleGenerator replay out records [maxTurns] [threads]");
+            return;
+        }
+        File out = new File(args[1]);
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        if(args[0].equals("replay"))
+        {
+            int maxTurns = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_TURNS;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : cpus;
+            new PuzzleGenerator(maxTurns, threads).run(replay(new File(args[2])), out);
+        }
+        else
+        {
+            int games = Integer.parseInt(args[2]);
+            int depth = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            int maxTurns = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_TURNS;
+            int threads = args.length > 5 ? Integer.parseInt(args[5]) : Math.max(1, cpus - 1);
+            long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+            new PuzzleGenerator(maxTurns, threads).run(selfPlay(games, depth, seed), out);
+        }
+    }
+}
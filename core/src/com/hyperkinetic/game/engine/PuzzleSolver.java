@@ -0,0 +1,477 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proves or refutes that the side to move destroys the opposing KingPiece within a number of its own turns, whatever
+ * the other side does.
+ *
+ * The proof is a depth-first AND/OR search, deepened one turn at a time so the shortest win is found first. Each
+ * node uses a {@link ThreatMap} of both lasers to skip work: on its last turn the attacker only traces the moves
+ * that could send its laser into the king, the defender tries the moves that could hit the attacker's king first,
+ * and neither side ever considers a move that certainly destroys its own king. Results are kept in a table shared
+ * by all threads, keyed by position and number of turns left.
+ *
+ * The moves of the root are shared out among the threads, and the first thread to prove a move stops the others.
+ */
+public class PuzzleSolver
+{
+    /**
+     * Largest number of turns of the side to move a puzzle can ask for.
+     */
+    public static final int MAX_TURNS = 8;
+
+    private final int threads;
+    private final ExecutorService pool;
+    /**
+     * Results of solved positions: the key xor the data, and the data. The data is the number of turns left shifted
+     * up by one, with the low bit set for a proof and clear for a refutation.
+     */
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+
+    private volatile boolean stopped;
+    private final AtomicLong nodes = new AtomicLong();
+
+    /**
+     * @param threads the number of search threads
+     * @param megabytes the size of the result table
+     */
+    public PuzzleSolver(int threads, int megabytes)
+    {
+        this.threads = Math.max(1, threads);
+        pool = Executors.newFixedThreadPool(this.threads);
+        int entries = Integer.highestOneBit(Math.max(1, megabytes) * (1 << 20) / 16);
+        keys = new long[entries];
+        data = new long[entries];
+        mask = entries - 1;
+    }
+
+    /**
+     * The answer to a puzzle.
+     */
+    public static class Solution
+    {
+        /**
+         * Whether the side to move wins within the asked number of turns.
+         */
+        public final boolean proven;
+        /**
+         * Turns of the side to move the win takes, 0 if it was not proven.
+         */
+        public final int turns;
+        /**
+         * The winning line, both sides' moves in order, with the defender resisting as long as it can; empty if the
+         * win was not proven.
+         */
+        public final int[] line;
+        public final long nodes;
+        /**
+         * Time taken in milliseconds.
+         */
+        public final long time;
+        /**
+         * Width of the board, to print the moves with.
+         */
+        private final int width;
+
+        Solution(boolean proven, int turns, int[] line, long nodes, long time, int width)
+        {
+            this.width = width;
+            this.proven = proven;
+            this.turns = turns;
+            this.line = line;
+            this.nodes = nodes;
+            this.time = time;
+        }
+
+        public long getNodesPerSecond() {
+            return time == 0 ? nodes * 1000 : nodes * 1000 / time;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(proven ? "win in " + turns : "no win");
+            for(int i = 0; i < line.length; i++)
+                sb.append(i == 0 ? ": " : ", ").append(Move.toString(line[i], width));
+            return sb.append(" (").append(nodes).append(" nodes, ").append(time).append("ms, ")
+                    .append(getNodesPerSecond()).append(" nodes/sec)").toString();
+        }
+    }
+
+    /**
+     * Solves a puzzle.
+     *
+     * @param position the position; it is not changed
+     * @param turns the most turns of the side to move to win in, at most {@link #MAX_TURNS}
+     * @return the answer
+     */
+    public Solution solve(BoardState position, int turns) throws InterruptedException
+    {
+        if(turns < 1 || turns > MAX_TURNS) throw new IllegalArgumentException("Turns must be 1 to " + MAX_TURNS);
+        long start = System.currentTimeMillis();
+        nodes.set(0);
+
+        final BoardState root = new BoardState(position);
+        if(!root.hasKing(true) || !root.hasKing(false))
+            return new Solution(false, 0, new int[0], 0, 0, root.getWidth());
+
+        final int[] moves = new int[Move.MAX_MOVES];
+        final int count = root.generateMoves(root.isWhiteToMove(), moves, 0);
+
+        for(int n = 1; n <= turns; n++)
+        {
+            final int depth = n;
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicInteger winner = new AtomicInteger(Move.NONE);
+            stopped = false;
+
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < threads; t++)
+            {
+                futures.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Worker w = new Worker(root);
+                        for(int i = next.getAndIncrement(); i < count && !stopped; i = next.getAndIncrement())
+                        {
+                            if(w.wins(moves[i], depth) && winner.compareAndSet(Move.NONE, moves[i])) stopped = true;
+                        }
+                        nodes.addAndGet(w.nodes);
+                    }
+                }));
+            }
+            for(Future<?> future : futures)
+            {
+                try {
+                    future.get();
+                } catch(ExecutionException ee) {
+                    throw new IllegalStateException(ee.getCause());
+                }
+            }
+
+            if(winner.get() != Move.NONE)
+            {
+                stopped = false;
+                int[] line = new Worker(root).line(winner.get(), depth);
+                return new Solution(true, depth, line, nodes.get(), System.currentTimeMillis() - start,
+                        root.getWidth());
+            }
+        }
+        return new Solution(false, 0, new int[0], nodes.get(), System.currentTimeMillis() - start,
+                root.getWidth());
+    }
+
+    /**
+     * Finds every move of the side to move that wins within a number of turns. Runs on the calling thread, so
+     * several threads can look at different positions at once.
+     *
+     * @param position the position; it is not changed
+     * @param turns the most turns of the side to move to win in, at most {@link #MAX_TURNS}
+     * @return the winning moves, in the order they are generated
+     */
+    public int[] winningMoves(BoardState position, int turns)
+    {
+        if(turns < 1 || turns > MAX_TURNS) throw new IllegalArgumentException("Turns must be 1 to " + MAX_TURNS);
+        if(!position.hasKing(true) || !position.hasKing(false)) return new int[0];
+
+        Worker w = new Worker(position);
+        int[] moves = new int[Move.MAX_MOVES];
+        int count = position.generateMoves(position.isWhiteToMove(), moves, 0);
+        int found = 0;
+        for(int i = 0; i < count; i++)
+            if(w.wins(moves[i], turns)) moves[found++] = moves[i];
+        nodes.addAndGet(w.nodes);
+        return Arrays.copyOf(moves, found);
+    }
+
+    /**
+     * @return the nodes searched since the last call to {@link #solve}
+     */
+    public long getNodes() {
+        return nodes.get();
+    }
+
+    /**
+     * Stops the threads for good.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return 1 if the position was proven won with at most this many turns, -1 if it was refuted with at least as
+     * many, 0 if it is not known
+     */
+    private int probe(long key, int turns)
+    {
+        int index = (int) key & mask;
+        long entry = data[index];
+        if((keys[index] ^ entry) != key || entry == 0) return 0;
+        int stored = (int) (entry >>> 1);
+        if((entry & 1) != 0) return stored <= turns ? 1 : 0;
+        return stored >= turns ? -1 : 0;
+    }
+
+    private void store(long key, int turns, boolean proven)
+    {
+        int index = (int) key & mask;
+        long entry = (long) turns << 1 | (proven ? 1 : 0);
+        data[index] = entry;
+        keys[index] = key ^ entry;
+    }
+
+    /**
+     * The position and buffers of one search thread.
+     */
+    private class Worker
+    {
+        final BoardState state;
+        final boolean attacker;
+        final LaserTrace trace = new LaserTrace();
+        final ThreatMap threats = new ThreatMap();
+        final int[][] moves = new int[MAX_TURNS * 2 + 1][Move.MAX_MOVES];
+        long nodes;
+
+        Worker(BoardState root)
+        {
+            state = new BoardState(root);
+            attacker = root.isWhiteToMove();
+            trace.setRecordSegments(false);
+            threats.compute(state);
+        }
+
+        /**
+         * @return whether a root move wins within the given turns
+         */
+        boolean wins(int move, int turns)
+        {
+            nodes++;
+            play(move);
+            boolean retval = attackerWon() || (turns > 1 && !defenderWon() && defends(turns - 1, 1) == 1);
+            unplay();
+            return retval;
+        }
+
+        private void play(int move)
+        {
+            state.makeTurn(move, trace);
+            threats.makeTurn(state, move, trace);
+        }
+
+        private void unplay()
+        {
+            state.unmakeTurn();
+            threats.unmakeTurn();
+        }
+
+        /**
+         * The black king is checked first, so when both kings are destroyed white has won.
+         */
+        private boolean attackerWon() {
+            return attacker ? !state.hasKing(false) : !state.hasKing(true) && state.hasKing(false);
+        }
+
+        private boolean defenderWon() {
+            return attacker ? state.hasKing(false) && !state.hasKing(true) : !state.hasKing(false);
+        }
+
+        /**
+         * Searches a position with the attacker to move.
+         *
+         * @param turns the turns the attacker has left, at least 1
+         * @return 1 if the attacker wins, -1 if not, 0 if the search was stopped
+         */
+        int attacks(int turns, int ply)
+        {
+            nodes++;
+            if(stopped) return 0;
+            long key = state.getKey();
+            int known = probe(key, turns);
+            if(known != 0) return known;
+
+            int[] list = moves[ply];
+            int count = state.generateMoves(attacker, list, 0);
+
+            // a win on this turn; only moves that could send the laser into the king are traced
+            for(int i = 0; i < count; i++)
+            {
+                if(threats.kingHit(state, list[i], !attacker) == ThreatMap.NEVER) continue;
+                state.makeTurn(list[i], trace);
+                boolean won = attackerWon();
+                state.unmakeTurn();
+                if(won)
+                {
+                    store(key, 1, true);
+                    return 1;
+                }
+            }
+
+            int retval = -1;
+            if(turns > 1)
+            {
+                for(int i = 0; i < count && retval != 1; i++)
+                {
+                    if(threats.losesAtOnce(state, list[i])) continue;
+                    play(list[i]);
+                    if(!defenderWon())
+                    {
+                        int result = defends(turns - 1, ply + 1);
+                        if(result == 0) retval = 0;
+                        else if(result == 1) retval = 1;
+                    }
+                    unplay();
+                    if(stopped) return 0;
+                }
+            }
+            if(retval != 0) store(key, turns, retval == 1);
+            return retval;
+        }
+
+        /**
+         * Searches a position with the defender to move.
+         *
+         * @param turns the turns the attacker has left after this one, at least 1
+         * @return 1 if the attacker wins against every move, -1 if not, 0 if the search was stopped
+         */
+        int defends(int turns, int ply)
+        {
+            nodes++;
+            if(stopped) return 0;
+
+            int[] list = moves[ply];
+            int count = state.generateMoves(!attacker, list, 0);
+
+            // moves that could hit the attacker's king come first, as they refute at once
+            int front = 0;
+            for(int i = 0; i < count; i++)
+            {
+                if(threats.kingHit(state, list[i], attacker) == ThreatMap.NEVER) continue;
+                int move = list[i];
+                list[i] = list[front];
+                list[front++] = move;
+            }
+
+            for(int i = 0; i < count; i++)
+            {
+                // a move that certainly destroys the defender's own king is no defence
+                if(threats.losesAtOnce(state, list[i])) continue;
+                play(list[i]);
+                int result;
+                if(defenderWon()) result = -1;
+                else if(attackerWon()) result = 1;
+                else result = attacks(turns, ply + 1);
+                unplay();
+                if(result != 1) return result;
+            }
+            return 1;
+        }
+
+        /**
+         * Builds the winning line after a proven root move. The defender plays the move that holds out longest, and
+         * the attacker a move that wins in the fewest turns left.
+         */
+        int[] line(int move, int turns)
+        {
+            List<Integer> line = new ArrayList<>();
+            line.add(move);
+            play(move);
+            int left = turns - 1;
+            while(!attackerWon() && left > 0)
+            {
+                // the defender: the move after which the attacker needs the most turns
+                int[] list = new int[Move.MAX_MOVES];
+                int count = state.generateMoves(!attacker, list, 0);
+                int best = Move.NONE;
+                int bestTurns = 0;
+                for(int i = 0; i < count; i++)
+                {
+                    play(list[i]);
+                    int needed = 0;
+                    if(!attackerWon() && !defenderWon())
+                    {
+                        needed = 1;
+                        while(needed < left && attacks(needed, 0) != 1) needed++;
+                    }
+                    unplay();
+                    if(best == Move.NONE || needed > bestTurns)
+                    {
+                        best = list[i];
+                        bestTurns = needed;
+                    }
+                }
+                line.add(best);
+                play(best);
+                if(attackerWon() || bestTurns == 0) break;
+
+                // the attacker: a move that wins in the turns the defender left it
+                count = state.generateMoves(attacker, list, 0);
+                for(int i = 0; i < count; i++)
+                {
+                    play(list[i]);
+                    boolean wins = attackerWon() || (bestTurns > 1 && !defenderWon() && defends(bestTurns - 1, 1) == 1);
+                    unplay();
+                    if(wins)
+                    {
+                        line.add(list[i]);
+                        play(list[i]);
+                        break;
+                    }
+                }
+                left = bestTurns - 1;
+            }
+
+            int[] retval = new int[line.size()];
+            for(int i = 0; i < retval.length; i++)
+                retval[i] = line.get(i);
+            return retval;
+        }
+    }
+
+    /**
+     * Solves a puzzle, or with no position, runs the solver over the benchmark positions as a stress test of the
+     * rules.
+     *
+     * Usage: <code>PuzzleSolver [turns] [threads] ["position"]</code>, the position as written by
+     * {@link BoardState#toText()}.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int turns = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        List<BoardState> positions = new ArrayList<>();
+        if(args.length > 2) positions.add(BoardState.fromText(args[2]));
+        else positions.addAll(Benchmarks.positions());
+
+        PuzzleSolver solver = new PuzzleSolver(threads, 64);
+        long nodes = 0;
+        long time = 0;
+        for(BoardState position : positions)
+        {
+            Solution solution = solver.solve(position, turns);
+            System.out.println(position.toText());
+            System.out.println("  " + solution);
+            nodes += solution.nodes;
+            time += solution.time;
+        }
+        System.out.println("total " + nodes + " nodes in " + time + "ms, " +
+                (time == 0 ? 0 : nodes * 1000 / time) + " nodes/sec on " + threads + " threads");
+        solver.shutdown();
+    }
+}
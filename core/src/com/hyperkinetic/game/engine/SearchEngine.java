@@ -0,0 +1,23 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+
+/**
+ * Something that picks a move for the side to move of a position.
+ */
+public interface SearchEngine
+{
+    /**
+     * Searches a position for the side to move.
+     *
+     * @param root the position to search; it is not changed
+     * @param limits the budget of the search
+     * @return the best move found and the search statistics
+     */
+    SearchResult search(BoardState root, SearchLimits limits);
+
+    /**
+     * Asks a running search to stop as soon as possible and return the best move found so far.
+     */
+    void stop();
+}
@@ -0,0 +1,44 @@
+package com.hyperkinetic.game.engine;
+
+/**
+ * The budget of one search. A search stops at whichever limit it reaches first; a limit of 0 is no limit.
+ */
+public class SearchLimits
+{
+    /**
+     * Deepest iteration to search, in turns.
+     */
+    public int depth;
+    /**
+     * Largest number of nodes to visit.
+     */
+    public long nodes;
+    /**
+     * Longest time to search, in milliseconds.
+     */
+    public long time;
+
+    public SearchLimits(int depth, long nodes, long time)
+    {
+        this.depth = depth;
+        this.nodes = nodes;
+        this.time = time;
+    }
+
+    public static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, 0, 0);
+    }
+
+    public static SearchLimits nodes(long nodes) {
+        return new SearchLimits(0, nodes, 0);
+    }
+
+    public static SearchLimits time(long millis) {
+        return new SearchLimits(0, 0, millis);
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + depth + ", nodes=" + nodes + ", time=" + time + "ms";
+    }
+}
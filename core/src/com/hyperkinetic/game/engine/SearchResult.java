@@ -0,0 +1,60 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.Move;
+
+/**
+ * The outcome of a search: the move to play and the statistics needed to judge the search speed.
+ */
+public class SearchResult
+{
+    /**
+     * The best move found, or {@link Move#NONE} if the side to move has no move.
+     */
+    public final int move;
+    /**
+     * Score of the move from the point of view of the side to move.
+     */
+    public final int score;
+    /**
+     * Deepest completed iteration.
+     */
+    public final int depth;
+    /**
+     * Number of positions visited.
+     */
+    public final long nodes;
+    /**
+     * Time spent searching, in milliseconds.
+     */
+    public final long time;
+
+    public SearchResult(int move, int score, int depth, long nodes, long time)
+    {
+        this.move = move;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.time = time;
+    }
+
+    /**
+     * @return the number of positions visited per second
+     */
+    public long getNodesPerSecond() {
+        return time == 0 ? nodes * 1000 : nodes * 1000 / time;
+    }
+
+    /**
+     * @return whether the score announces a forced win or loss
+     */
+    public boolean isWinScore() {
+        return Math.abs(score) > AlphaBetaEngine.WIN_BOUND;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "move " + Move.toString(move) + " score " + score + " depth " + depth + " nodes " + nodes +
+                " time " + time + "ms nps " + getNodesPerSecond();
+    }
+}
@@ -0,0 +1,577 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An endgame tablebase: the exact result of every StandardBoard position with a given material, that is both
+ * kings, both lasers on their tiles and a small set of other pieces.
+ *
+ * The material is written as a signature such as <code>KLg</code>: kings and lasers, then one letter for every
+ * other piece, upper case for white and lower case for black (G guardian, S single mirror, D double mirror).
+ *
+ * A position is stored as one byte: 0 for a draw, d if the side to move destroys the other king d plies from now,
+ * -d if its own king is destroyed d plies from now, counting the turns of both sides as the search does. The
+ * orientation of a KingPiece never changes how a laser treats it, so kings are
+ * stored without one. Files are a short header followed by the bytes, and are memory-mapped to be probed.
+ *
+ * Tables are generated by retrograde analysis. A first pass over every position finds the wins in one turn, the
+ * turns that destroy a piece (looked up in the tables with less material) and the number of turns that stay in
+ * the table. Then, one distance at a time, positions are resolved backwards: the predecessors of a loss in d-1 are
+ * wins in d, and a position whose every turn leads to a win of the opponent is lost one ply after the slowest one. The predecessors of a
+ * position are found by taking back a move of the side that just moved; there are none if its laser, fired on the
+ * position, destroys anything. Both passes run in parallel over ranges of positions.
+ */
+public class Tablebase
+{
+    /**
+     * Largest number of pieces besides the kings and lasers. Every extra piece multiplies the size of a table by
+     * four times the number of cells.
+     */
+    public static final int MAX_EXTRAS = 1;
+    /**
+     * Returned by {@link #probe} for a position the table does not cover.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+    /**
+     * Longest distance a table can store, in plies.
+     */
+    public static final int MAX_DISTANCE = 127;
+
+    private static final int MAGIC = 0x4C544231;
+    /**
+     * Marks a combination of cells that is not a position, such as two pieces on one cell.
+     */
+    private static final byte INVALID = -128;
+    /**
+     * Number of positions a parallel task handles without splitting.
+     */
+    private static final int CHUNK = 1 << 14;
+
+    private final String signature;
+    private final int[] extraKinds;
+    private final boolean[] extraWhite;
+
+    private final int width;
+    private final int height;
+    private final int cells;
+    private final int whiteLaser;
+    private final int blackLaser;
+    private final int whiteLaserHome;
+    private final int blackLaserHome;
+    private final long size;
+
+    private ByteBuffer values;
+    private int offset;
+
+    /**
+     * Creates an empty table for a material on the StandardBoard.
+     *
+     * @param signature the material, such as <code>KL</code> or <code>KLg</code>
+     */
+    public Tablebase(String signature)
+    {
+        if(!signature.startsWith("KL")) throw new IllegalArgumentException("Signature must start with KL");
+        int extras = signature.length() - 2;
+        if(extras > MAX_EXTRAS) throw new IllegalArgumentException("At most " + MAX_EXTRAS + " extra pieces");
+
+        this.signature = signature;
+        extraKinds = new int[extras];
+        extraWhite = new boolean[extras];
+        for(int i = 0; i < extras; i++)
+        {
+            char letter = signature.charAt(2 + i);
+            int kind = BoardState.PIECE_LETTERS.indexOf(Character.toUpperCase(letter));
+            if(kind <= BoardState.LASER) throw new IllegalArgumentException("Unknown piece " + letter);
+            extraKinds[i] = kind;
+            extraWhite[i] = Character.isUpperCase(letter);
+        }
+
+        BoardState start = new StandardBoard(true).getState();
+        width = start.getWidth();
+        height = start.getHeight();
+        cells = start.getCellCount();
+        whiteLaser = start.findPiece(BoardState.LASER, true);
+        blackLaser = start.findPiece(BoardState.LASER, false);
+        whiteLaserHome = 0;
+        blackLaserHome = 2;
+
+        long count = 2 * 4 * cells * cells;
+        for(int i = 0; i < extras; i++)
+            count *= cells * 4;
+        size = count;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return the number of positions in the table, including invalid ones
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Builds the signature of the material of a position.
+     *
+     * @return the signature, or null if the position has no table: a king or laser is missing, or there are too
+     * many other pieces
+     */
+    public static String signatureOf(BoardState state)
+    {
+        if(state.countPieces(true) + state.countPieces(false) > 4 + MAX_EXTRAS) return null;
+        if(state.countPieces(BoardState.KING, true) != 1 || state.countPieces(BoardState.KING, false) != 1 ||
+                state.countPieces(BoardState.LASER, true) != 1 || state.countPieces(BoardState.LASER, false) != 1)
+            return null;
+
+        StringBuilder sb = new StringBuilder("KL");
+        for(int white = 1; white >= 0; white--)
+        {
+            for(int kind = BoardState.GUARDIAN; kind < BoardState.KIND_COUNT; kind++)
+            {
+                char letter = BoardState.PIECE_LETTERS.charAt(kind);
+                for(int i = state.countPieces(kind, white == 1); i > 0; i--)
+                    sb.append(white == 1 ? letter : Character.toLowerCase(letter));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Looks up a position.
+     *
+     * @param state a position with the material of this table
+     * @return the value of the position for the side to move, or {@link #UNKNOWN} if it is not in the table
+     */
+    public int probe(BoardState state)
+    {
+        long index = indexOf(state);
+        if(index < 0 || values == null) return UNKNOWN;
+        byte value = values.get(offset + (int) index);
+        return value == INVALID ? UNKNOWN : value;
+    }
+
+    /**
+     * @return the index of a position, or -1 if it does not fit the table
+     */
+    long indexOf(BoardState state)
+    {
+        if(state.getWidth() != width || state.getHeight() != height) return -1;
+        if(state.findPiece(BoardState.LASER, true) != whiteLaser || state.findPiece(BoardState.LASER, false) != blackLaser)
+            return -1;
+        int whiteKing = state.findPiece(BoardState.KING, true);
+        int blackKing = state.findPiece(BoardState.KING, false);
+        if(whiteKing == BoardState.EMPTY || blackKing == BoardState.EMPTY) return -1;
+
+        long index = state.isWhiteToMove() ? 0 : 1;
+        index = index * 4 + (state.getOrientation(whiteLaser) == whiteLaserHome ? 0 : 1) +
+                (state.getOrientation(blackLaser) == blackLaserHome ? 0 : 2);
+        index = (index * cells + whiteKing) * cells + blackKing;
+
+        int found = 0;
+        for(int cell = 0; cell < cells; cell++)
+        {
+            int kind = state.getKind(cell);
+            if(kind <= BoardState.LASER) continue;
+            if(found == extraKinds.length || kind != extraKinds[found] || state.isWhite(cell) != extraWhite[found])
+                return -1;
+            index = index * cells * 4 + cell * 4 + state.getOrientation(cell);
+            found++;
+        }
+        return found == extraKinds.length ? index : -1;
+    }
+
+    /**
+     * Sets up the position of an index.
+     *
+     * @return false if the index is not a valid position
+     */
+    boolean decode(long index, BoardState state)
+    {
+        int[] extraCells = new int[extraKinds.length];
+        int[] extraOrientations = new int[extraKinds.length];
+        for(int i = extraKinds.length - 1; i >= 0; i--)
+        {
+            int field = (int) (index % (cells * 4));
+            index /= cells * 4;
+            extraCells[i] = field >> 2;
+            extraOrientations[i] = field & 3;
+        }
+        int blackKing = (int) (index % cells);
+        index /= cells;
+        int whiteKing = (int) (index % cells);
+        index /= cells;
+        int lasers = (int) (index & 3);
+        boolean whiteToMove = index >> 2 == 0;
+
+        state.clear();
+        state.place(whiteLaser, BoardState.LASER, true, (lasers & 1) == 0 ? whiteLaserHome : toggled(whiteLaserHome));
+        state.place(blackLaser, BoardState.LASER, false, (lasers & 2) == 0 ? blackLaserHome : toggled(blackLaserHome));
+        if(state.isOccupied(whiteKing)) return false;
+        state.place(whiteKing, BoardState.KING, true, 0);
+        if(state.isOccupied(blackKing)) return false;
+        state.place(blackKing, BoardState.KING, false, 0);
+        for(int i = 0; i < extraKinds.length; i++)
+        {
+            if(state.isOccupied(extraCells[i])) return false;
+            state.place(extraCells[i], extraKinds[i], extraWhite[i], extraOrientations[i]);
+        }
+        state.setWhiteToMove(whiteToMove);
+        return true;
+    }
+
+    /**
+     * @return the orientation a quarter turn counterclockwise from the rest orientation of a laser
+     */
+    private static int toggled(int home) {
+        return (home + 3) & 3;
+    }
+
+    /**
+     * Generates the table. The tables for every material that a laser can reduce this one to must be in
+     * <code>smaller</code>.
+     *
+     * @param smaller the tables with less material
+     * @param pool the threads to generate with
+     * @return statistics of the generation
+     */
+    public String generate(final Tablebases smaller, ForkJoinPool pool)
+    {
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Table " + signature + " is too large");
+        final int n = (int) size;
+        final byte[] result = new byte[n];
+        final byte[] bad = new byte[n];
+        final byte[] captureWin = new byte[n];
+        final AtomicIntegerArray counters = new AtomicIntegerArray(n);
+        final AtomicInteger horizon = new AtomicInteger(1);
+        final AtomicLong valid = new AtomicLong();
+        long start = System.currentTimeMillis();
+
+        // first pass: wins in one, turns that destroy a piece, and turns that stay in the table
+        pool.invoke(new Range(0, n)
+        {
+            @Override
+            void visit(Worker w, int index)
+            {
+                if(!decode(index, w.state))
+                {
+                    result[index] = INVALID;
+                    return;
+                }
+                valid.incrementAndGet();
+
+                BoardState state = w.state;
+                boolean white = state.isWhiteToMove();
+                int count = state.generateMoves(white, w.moves, 0);
+                int inTable = 0;
+                int worst = -1;
+                int quickest = 0;
+                boolean escape = false;
+                boolean wins = false;
+
+                for(int i = 0; i < count; i++)
+                {
+                    state.makeTurn(w.moves[i], w.trace);
+                    if(!state.hasKing(false) || !state.hasKing(true))
+                    {
+                        // the black king is checked first, so white wins when both kings are destroyed
+                        if(!state.hasKing(false) == white) wins = true;
+                        else worst = Math.max(worst, 0);
+                    }
+                    else if(w.trace.getDestroyedCount() > 0)
+                    {
+                        int value = smaller == null ? UNKNOWN : smaller.probe(state);
+                        if(value == UNKNOWN)
+                            throw new IllegalStateException("No table for " + signatureOf(state));
+                        if(value < 0 && (quickest == 0 || 1 - value < quickest)) quickest = 1 - value;
+                        else if(value > 0) worst = Math.max(worst, value);
+                        else if(value == 0) escape = true;
+                    }
+                    else inTable++;
+                    state.unmakeTurn();
+                }
+
+                if(wins)
+                {
+                    result[index] = 1;
+                    return;
+                }
+                // a turn to a draw or to a win through a capture means the position is never lost
+                if(escape || quickest > 0) inTable++;
+                counters.set(index, inTable);
+                bad[index] = (byte) Math.max(worst, 0);
+                captureWin[index] = (byte) Math.min(quickest, MAX_DISTANCE);
+                int due = Math.max(quickest, worst + 1);
+                while(due > horizon.get() && !horizon.compareAndSet(horizon.get(), due));
+            }
+        });
+
+        for(int distance = 1; distance <= MAX_DISTANCE; distance++)
+        {
+            final int d = distance;
+            final AtomicLong found = new AtomicLong();
+
+            // wins through captures, wins before losses in d-1, and one win fewer to wait for after wins in d-1
+            if(d > 1) pool.invoke(new Range(0, n)
+            {
+                @Override
+                void visit(Worker w, int index)
+                {
+                    byte value = result[index];
+                    if(value == 0 && captureWin[index] == d)
+                    {
+                        result[index] = (byte) d;
+                        found.incrementAndGet();
+                    }
+                    else if(value == 1 - d)
+                    {
+                        int count = predecessors(index, w);
+                        for(int i = 0; i < count; i++)
+                        {
+                            int p = w.predecessors[i];
+                            if(result[p] == 0)
+                            {
+                                result[p] = (byte) d;
+                                found.incrementAndGet();
+                            }
+                        }
+                    }
+                    else if(value == d - 1)
+                    {
+                        int count = predecessors(index, w);
+                        for(int i = 0; i < count; i++)
+                        {
+                            int p = w.predecessors[i];
+                            counters.decrementAndGet(p);
+                            if(bad[p] < d - 1) bad[p] = (byte) (d - 1);
+                        }
+                    }
+                }
+            });
+
+            // losses: every turn leads to a win of the opponent, the slowest of which takes d-1 turns
+            pool.invoke(new Range(0, n)
+            {
+                @Override
+                void visit(Worker w, int index)
+                {
+                    if(result[index] == 0 && counters.get(index) == 0 && bad[index] + 1 == d)
+                    {
+                        result[index] = (byte) -d;
+                        found.incrementAndGet();
+                    }
+                }
+            });
+
+            if(found.get() == 0 && distance >= horizon.get()) break;
+        }
+
+        long decided = 0;
+        int longest = 0;
+        for(int i = 0; i < n; i++)
+        {
+            if(result[i] == 0 || result[i] == INVALID) continue;
+            decided++;
+            longest = Math.max(longest, Math.abs(result[i]));
+        }
+        values = ByteBuffer.wrap(result);
+        offset = 0;
+
+        return String.format("%s: %d positions (%d valid), %d decided, longest %d, generated in %dms",
+                signature, size, valid.get(), decided, longest, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Finds the positions a turn leads from to a position without destroying anything.
+     *
+     * @param index the position, which must be valid
+     * @param w the worker, whose predecessor buffer receives the indices
+     * @return the number of predecessors; a position reached by two different turns is listed twice
+     */
+    private int predecessors(int index, Worker w)
+    {
+        BoardState state = w.state;
+        decode(index, state);
+        boolean mover = !state.isWhiteToMove();
+        w.trace.fire(state, mover);
+        if(w.trace.getDestroyedCount() > 0) return 0;
+
+        int stride = extraKinds.length == 0 ? 1 : cells * 4;
+        int sideStride = 4 * cells * cells * (extraKinds.length == 0 ? 1 : stride);
+        int base = index + (mover ? -sideStride : sideStride);
+        int count = 0;
+
+        // kings: both rotations lead to the same stored position, and steps from the neighbouring cells
+        int king = state.findPiece(BoardState.KING, mover);
+        int kingStride = (mover ? cells : 1) * stride;
+        w.predecessors[count++] = base;
+        w.predecessors[count++] = base;
+        count = steps(state, king, base, kingStride, w, count);
+
+        // the laser was toggled from its other orientation
+        int laserBit = mover ? 1 : 2;
+        int laserField = (index / (cells * cells * stride)) & 3;
+        w.predecessors[count++] = base + ((laserField & laserBit) != 0 ? -laserBit : laserBit) * cells * cells * stride;
+
+        for(int i = 0; i < extraKinds.length; i++)
+        {
+            if(extraWhite[i] != mover) continue;
+            // with a single extra piece its field is the lowest one
+            int field = index % (cells * 4);
+            int cell = field >> 2;
+            int orientation = field & 3;
+            int fieldBase = base - field;
+            w.predecessors[count++] = fieldBase + cell * 4 + ((orientation + 1) & 3);
+            w.predecessors[count++] = fieldBase + cell * 4 + ((orientation + 3) & 3);
+            count = steps(state, cell, base, 4, w, count);
+        }
+        return count;
+    }
+
+    /**
+     * Adds the predecessors in which a piece stood on an empty cell next to its current one.
+     */
+    private int steps(BoardState state, int cell, int base, int cellStride, Worker w, int count)
+    {
+        int x = state.cellX(cell);
+        int y = state.cellY(cell);
+        for(int nY = y - 1; nY <= y + 1; nY++)
+        {
+            for(int nX = x - 1; nX <= x + 1; nX++)
+            {
+                if(!state.contains(nX, nY) || (nX == x && nY == y)) continue;
+                int from = state.cell(nX, nY);
+                if(!state.isOccupied(from)) w.predecessors[count++] = base + (from - cell) * cellStride;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the table to a file.
+     */
+    public void write(File file) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(width);
+            dos.writeInt(height);
+            dos.writeUTF(signature);
+            dos.writeLong(size);
+            for(int i = 0; i < size; i++)
+                dos.writeByte(values.get(offset + i));
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Maps a table file into memory.
+     *
+     * @param file a file written by {@link #write}
+     * @return the table
+     * @throws IOException if the file cannot be read
+     */
+    public static Tablebase open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(raf.readInt() != MAGIC) throw new IOException(file + " is not a tablebase");
+            int width = raf.readInt();
+            int height = raf.readInt();
+            Tablebase retval = new Tablebase(raf.readUTF());
+            long size = raf.readLong();
+            if(width != retval.width || height != retval.height || size != retval.size)
+                throw new IOException(file + " is for another board");
+
+            int header = (int) raf.getFilePointer();
+            retval.values = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, header + size);
+            retval.offset = header;
+            return retval;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The position buffers of one parallel task.
+     */
+    private class Worker
+    {
+        final BoardState state = new BoardState(width, height);
+        final LaserTrace trace = new LaserTrace();
+        final int[] moves = new int[Move.MAX_MOVES];
+        final int[] predecessors = new int[64];
+
+        Worker() {
+            trace.setRecordSegments(false);
+        }
+    }
+
+    /**
+     * Visits a range of positions, splitting it over the pool.
+     */
+    private abstract class Range extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int from;
+        final int to;
+
+        Range(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        abstract void visit(Worker w, int index);
+
+        @Override
+        protected void compute()
+        {
+            if(to - from <= CHUNK)
+            {
+                Worker w = new Worker();
+                for(int i = from; i < to; i++)
+                    visit(w, i);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(copy(from, mid), copy(mid, to));
+        }
+
+        /**
+         * @return a task visiting another range in the same way
+         */
+        private Range copy(int from, int to)
+        {
+            final Range outer = this;
+            return new Range(from, to)
+            {
+                @Override
+                void visit(Worker w, int index) {
+                    outer.visit(w, index);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The endgame tablebases an engine probes, one {@link Tablebase} per material, looked up by the material of the
+ * position.
+ */
+public class Tablebases
+{
+    /**
+     * The directory tables are looked for in by {@link #openDefault()}.
+     */
+    public static final String DEFAULT_DIRECTORY = "tablebases";
+    /**
+     * Extension of table files.
+     */
+    public static final String EXTENSION = ".tb";
+
+    private final Map<String, Tablebase> tables = new HashMap<String, Tablebase>();
+
+    public void add(Tablebase table) {
+        tables.put(table.getSignature(), table);
+    }
+
+    public Tablebase get(String signature) {
+        return tables.get(signature);
+    }
+
+    public int size() {
+        return tables.size();
+    }
+
+    /**
+     * Looks up a position in the table of its material.
+     *
+     * @return the value of the position for the side to move as stored by {@link Tablebase}, or
+     * {@link Tablebase#UNKNOWN} if there is no table for it
+     */
+    public int probe(BoardState state)
+    {
+        String signature = Tablebase.signatureOf(state);
+        Tablebase table = signature == null ? null : tables.get(signature);
+        return table == null ? Tablebase.UNKNOWN : table.probe(state);
+    }
+
+    /**
+     * Maps every table file of a directory into memory.
+     *
+     * @param directory the directory of the files
+     * @return the tables, empty if the directory has none
+     * @throws IOException if a file cannot be read
+     */
+    public static Tablebases open(File directory) throws IOException
+    {
+        Tablebases retval = new Tablebases();
+        File[] files = directory.listFiles();
+        if(files == null) return retval;
+        for(File file : files)
+            if(file.getName().endsWith(EXTENSION)) retval.add(Tablebase.open(file));
+        return retval;
+    }
+
+    /**
+     * @return the tables in {@link #DEFAULT_DIRECTORY}, or null if there are none or they cannot be read
+     */
+    public static Tablebases openDefault()
+    {
+        File directory = new File(DEFAULT_DIRECTORY);
+        if(!directory.isDirectory()) return null;
+        try {
+            Tablebases retval = open(directory);
+            return retval.size() == 0 ? null : retval;
+        } catch(IOException ioe) {
+            System.out.println("Could not open the tablebases: " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lists the materials up to a number of extra pieces, each after every material it can be reduced to.
+     */
+    public static List<String> signatures(int extras)
+    {
+        List<String> retval = new ArrayList<String>();
+        retval.add("KL");
+        if(extras < 1) return retval;
+        String letters = BoardState.PIECE_LETTERS.substring(BoardState.GUARDIAN);
+        for(char letter : letters.toCharArray())
+            retval.add("KL" + letter);
+        for(char letter : letters.toLowerCase().toCharArray())
+            retval.add("KL" + letter);
+        return retval;
+    }
+
+    /**
+     * Times random probes of a table.
+     *
+     * @return the average time of a probe in nanoseconds
+     */
+    static double probeLatency(Tablebase table, int probes)
+    {
+        // decoding is not part of a probe, so the positions are set up first
+        Random random = new Random(1);
+        List<BoardState> positions = new ArrayList<BoardState>();
+        BoardState state = new BoardState();
+        while(positions.size() < 4096)
+        {
+            long index = (long) (random.nextDouble() * table.size());
+            if(table.decode(index, state)) positions.add(new BoardState(state));
+        }
+
+        long sum = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < probes; i++)
+            sum += table.probe(positions.get(i & 4095));
+        long elapsed = System.nanoTime() - start;
+        if(sum == Long.MIN_VALUE) System.out.println(sum);
+        return (double) elapsed / probes;
+    }
+
+    /**
+     * Generates tables and reports the time each takes, its size and how long a probe takes.
+     *
+     * Arguments: the directory to write to, then the number of extra pieces (default 0) or a list of signatures,
+     * which must come after every material they can be reduced to.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        File directory = new File(args.length > 0 ? args[0] : DEFAULT_DIRECTORY);
+        List<String> signatures;
+        if(args.length > 2 || (args.length == 2 && args[1].startsWith("KL")))
+        {
+            signatures = new ArrayList<String>();
+            for(int i = 1; i < args.length; i++)
+                signatures.add(args[i]);
+        }
+        else signatures = signatures(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        ForkJoinPool pool = new ForkJoinPool();
+        System.out.println("generating on " + pool.getParallelism() + " threads");
+
+        Tablebases tables = open(directory);
+        for(String signature : signatures)
+        {
+            File file = new File(directory, signature + EXTENSION);
+            if(tables.get(signature) == null)
+            {
+                Tablebase table = new Tablebase(signature);
+                System.out.println(table.generate(tables, pool));
+                table.write(file);
+            }
+            Tablebase table = Tablebase.open(file);
+            tables.add(table);
+            System.out.printf("%s: %d bytes, %.1fns per probe%n", signature, file.length(),
+                    probeLatency(table, 1000000));
+        }
+        pool.shutdown();
+    }
+}
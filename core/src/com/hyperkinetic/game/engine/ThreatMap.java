@@ -0,0 +1,345 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.util.Directions;
+
+/**
+ * King exposure maps: for the laser of each side, the cells whose occupant could be changed so that the laser
+ * reaches a KingPiece. With the maps a move can be classified without tracing a laser: a move that changes no cell
+ * on the path of the mover's laser leaves the shot as it is, and a move that only changes cells that are not
+ * exposed cannot redirect the laser into a king.
+ *
+ * A cell on the path is exposed if any beam entering it could be sent on (straight ahead or turned either way by a
+ * piece placed or rotated there) along a route that hits the king, or if the king could step onto it. Routes are
+ * traced through the pieces as they stand; when two halves of a split beam interact, or a route comes back to the
+ * changed cell, the cell is marked exposed to be safe.
+ *
+ * The maps of a side only depend on the cells its routes pass through. After a turn only the sides whose routes
+ * were touched are recomputed, and the maps of every turn are saved on a stack so they can be restored when the
+ * turn is taken back.
+ */
+public class ThreatMap
+{
+    /**
+     * The move certainly does not make the laser hit the king.
+     */
+    public static final int NEVER = 0;
+    /**
+     * The move certainly makes the laser hit the king.
+     */
+    public static final int ALWAYS = 1;
+    /**
+     * The laser has to be traced to know.
+     */
+    public static final int MAYBE = 2;
+
+    private static final int WHITE = 0;
+    private static final int BLACK = 1;
+
+    /**
+     * Longs per side: path, dependencies, exposure to the white king and to the black king (two words each),
+     * then the kings hit by the current shot.
+     */
+    private static final int SIDE = 9;
+    private static final int PATH = 0;
+    private static final int DEPENDS = 2;
+    private static final int EXPOSED = 4;
+    private static final int HITS = 8;
+    /**
+     * Flags kept in the {@link #HITS} word.
+     */
+    private static final long HITS_WHITE = 1;
+    private static final long HITS_BLACK = 2;
+    /**
+     * Set when destroyed pieces make the routes depend on each other; any change on the path is then unsure.
+     */
+    private static final long TANGLED = 4;
+
+    private final long[] maps = new long[SIDE * 2];
+    private long[] stack;
+    private int size;
+
+    private final LaserTrace trace;
+    private final LaserTrace route;
+    /**
+     * (cell, direction) pairs already traced while computing one side.
+     */
+    private final long[] tried;
+    /**
+     * Cells of the pieces destroyed by the routes of one side, cells passed by its routes, and cells passed by
+     * more than one route or by the shot itself.
+     */
+    private final long[] opened = new long[2];
+    private final long[] passed = new long[2];
+    private final long[] shared = new long[2];
+
+    public ThreatMap()
+    {
+        stack = new long[SIDE * 2 * 64];
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        route = new LaserTrace();
+        route.setRecordSegments(false);
+        tried = new long[BoardState.MAX_CELLS * 4 / 64];
+    }
+
+    /**
+     * Computes the maps of both sides from scratch and forgets the saved turns.
+     */
+    public void compute(BoardState state)
+    {
+        size = 0;
+        compute(state, WHITE);
+        compute(state, BLACK);
+    }
+
+    /**
+     * Updates the maps after a turn has been played.
+     *
+     * @param state the position after the turn
+     * @param move the move of the turn
+     * @param fired the trace of the laser fired by the turn
+     */
+    public void makeTurn(BoardState state, int move, LaserTrace fired)
+    {
+        if(size + maps.length > stack.length)
+        {
+            long[] grown = new long[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, size);
+            stack = grown;
+        }
+        System.arraycopy(maps, 0, stack, size, maps.length);
+        size += maps.length;
+
+        int from = Move.from(move);
+        int to = Move.to(move);
+        // a king that moved changes which path cells it can step onto
+        boolean kingMoved = !Move.isRotation(move) && (state.getKind(to) == BoardState.KING ||
+                (fired.isKingDestroyed(true) || fired.isKingDestroyed(false)));
+
+        for(int side = WHITE; side <= BLACK; side++)
+        {
+            boolean dirty = kingMoved || depends(side, from) || depends(side, to);
+            for(int i = 0; i < fired.getDestroyedCount() && !dirty; i++)
+                dirty = depends(side, LaserTrace.cellOf(fired.getDestroyed(i)));
+            if(dirty) compute(state, side);
+        }
+    }
+
+    /**
+     * Restores the maps of the position before the last turn passed to {@link #makeTurn}.
+     */
+    public void unmakeTurn()
+    {
+        size -= maps.length;
+        System.arraycopy(stack, size, maps, 0, maps.length);
+    }
+
+    /**
+     * @param laser the side of the laser
+     * @param king the side of the king
+     * @return whether changing the occupant of a cell could make the laser hit the king
+     */
+    public boolean isExposed(boolean laser, boolean king, int cell) {
+        return test(side(laser), EXPOSED + (king ? 0 : 2), cell);
+    }
+
+    /**
+     * @return whether the laser of a side, fired now, would hit a king
+     */
+    public boolean hitsKing(boolean laser, boolean king) {
+        return (maps[side(laser) * SIDE + HITS] & hitsFlag(king)) != 0;
+    }
+
+    /**
+     * @return whether the laser of a side, fired now, passes through a cell
+     */
+    public boolean isOnPath(boolean laser, int cell) {
+        return test(side(laser), PATH, cell);
+    }
+
+    /**
+     * Tells, in constant time, whether the laser fired after a move of the side to move hits a king.
+     *
+     * @param state the position before the move
+     * @param move a legal move of the side to move
+     * @param king the side of the king
+     * @return {@link #NEVER}, {@link #ALWAYS} or {@link #MAYBE}
+     */
+    public int kingHit(BoardState state, int move, boolean king)
+    {
+        int side = side(state.isWhiteToMove());
+        int from = Move.from(move);
+        int to = Move.to(move);
+        boolean step = !Move.isRotation(move);
+        boolean fromOnPath = test(side, PATH, from);
+        boolean toOnPath = step && test(side, PATH, to);
+
+        long flags = maps[side * SIDE + HITS];
+
+        // the shot does not change
+        if(!fromOnPath && !toOnPath) return (flags & hitsFlag(king)) != 0 ? ALWAYS : NEVER;
+
+        int exposed = EXPOSED + (king ? 0 : 2);
+        if((flags & (hitsFlag(king) | TANGLED)) != 0 || test(side, exposed, from) || (step && test(side, exposed, to)))
+            return MAYBE;
+
+        // the redirected beam could still meet the other changed cell
+        if(step && (fromOnPath && toOnPath || depends(side, fromOnPath ? to : from))) return MAYBE;
+        return NEVER;
+    }
+
+    /**
+     * @return whether a move of the side to move certainly loses at once, because its own laser destroys its king
+     * and, for white, not the black king as well
+     */
+    public boolean losesAtOnce(BoardState state, int move)
+    {
+        boolean white = state.isWhiteToMove();
+        if(kingHit(state, move, white) != ALWAYS) return false;
+        return !white || kingHit(state, move, false) == NEVER;
+    }
+
+    /**
+     * @return whether a move of the side to move certainly does not destroy its own king
+     */
+    public boolean isSafe(BoardState state, int move) {
+        return kingHit(state, move, state.isWhiteToMove()) == NEVER;
+    }
+
+    /**
+     * Computes the maps of the laser of one side.
+     */
+    private void compute(BoardState state, int side)
+    {
+        int base = side * SIDE;
+        for(int i = 0; i < SIDE; i++)
+            maps[base + i] = 0L;
+
+        boolean white = side == WHITE;
+        trace.fire(state, white);
+        maps[base + PATH] = trace.getPath(0);
+        maps[base + PATH + 1] = trace.getPath(1);
+        maps[base + DEPENDS] = trace.getPath(0);
+        maps[base + DEPENDS + 1] = trace.getPath(1);
+        maps[base + HITS] = (trace.isKingDestroyed(true) ? HITS_WHITE : 0) |
+                (trace.isKingDestroyed(false) ? HITS_BLACK : 0);
+        // cells emptied by the shot let later beams through, and a change on the path may keep them filled
+        if(trace.getDestroyedCount() > 0) maps[base + HITS] |= TANGLED;
+
+        for(int i = 0; i < tried.length; i++)
+            tried[i] = 0L;
+        for(int word = 0; word < 2; word++)
+        {
+            opened[word] = 0L;
+            passed[word] = 0L;
+            shared[word] = trace.getPath(word);
+        }
+
+        int laser = state.findPiece(BoardState.LASER, white);
+        if(laser != BoardState.EMPTY)
+        {
+            // the laser can be turned to its other firing direction
+            int home = white ? 0 : 2;
+            tryRoute(state, side, laser, Directions.toDirection(home).ordinal());
+            tryRoute(state, side, laser, Directions.toDirection((home + 3) & 3).ordinal());
+        }
+
+        // every beam entering a path cell could be sent on straight ahead or turned either way
+        for(int word = 0; word < 2; word++)
+        {
+            long bits = maps[base + PATH + word];
+            while(bits != 0)
+            {
+                int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if(cell == laser) continue;
+
+                for(int dir = 0; dir < 4; dir++)
+                {
+                    if(!trace.isEntered(cell, dir)) continue;
+                    tryRoute(state, side, cell, dir);
+                    tryRoute(state, side, cell, (dir + 1) & 3);
+                    tryRoute(state, side, cell, (dir + 3) & 3);
+                }
+            }
+        }
+
+        // a route emptying a cell that another route passes through depends on the order they are traced in
+        if((opened[0] & shared[0]) != 0 || (opened[1] & shared[1]) != 0)
+            maps[base + HITS] |= TANGLED;
+
+        // a king stepping onto the path is hit
+        for(int king = WHITE; king <= BLACK; king++)
+        {
+            int cell = state.findPiece(BoardState.KING, king == WHITE);
+            if(cell == BoardState.EMPTY) continue;
+            int x = state.cellX(cell);
+            int y = state.cellY(cell);
+            for(int nY = y - 1; nY <= y + 1; nY++)
+            {
+                for(int nX = x - 1; nX <= x + 1; nX++)
+                {
+                    if(!state.contains(nX, nY)) continue;
+                    int next = state.cell(nX, nY);
+                    if(test(side, PATH, next)) set(side, EXPOSED + king * 2, next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Traces the route of a beam leaving a path cell in a direction, and marks the cell as exposed to every king
+     * the route reaches.
+     */
+    private void tryRoute(BoardState state, int side, int cell, int dir)
+    {
+        int index = cell << 2 | dir;
+        if((tried[index >>> 6] & (1L << index)) != 0) return;
+        tried[index >>> 6] |= 1L << index;
+
+        route.fireFrom(state, cell, dir);
+        int base = side * SIDE;
+        for(int word = 0; word < 2; word++)
+        {
+            long cells = route.getPath(word);
+            maps[base + DEPENDS + word] |= cells;
+            shared[word] |= passed[word] & cells;
+            passed[word] |= cells;
+        }
+
+        for(int i = 0; i < route.getDestroyedCount(); i++)
+        {
+            int destroyed = LaserTrace.cellOf(route.getDestroyed(i));
+            if(LaserTrace.kindOf(route.getDestroyed(i)) != BoardState.KING)
+                opened[destroyed >>> 6] |= 1L << destroyed;
+        }
+
+        // a route that returns to the changed cell depends on the piece put there
+        boolean unsure = route.isOnPath(cell);
+        if(unsure || route.isKingDestroyed(true)) set(side, EXPOSED, cell);
+        if(unsure || route.isKingDestroyed(false)) set(side, EXPOSED + 2, cell);
+    }
+
+    private boolean depends(int side, int cell) {
+        return test(side, DEPENDS, cell);
+    }
+
+    private boolean test(int side, int map, int cell) {
+        return (maps[side * SIDE + map + (cell >>> 6)] & (1L << cell)) != 0;
+    }
+
+    private void set(int side, int map, int cell) {
+        maps[side * SIDE + map + (cell >>> 6)] |= 1L << cell;
+    }
+
+    private static long hitsFlag(boolean king) {
+        return king ? HITS_WHITE : HITS_BLACK;
+    }
+
+    private static int side(boolean white) {
+        return white ? WHITE : BLACK;
+    }
+}
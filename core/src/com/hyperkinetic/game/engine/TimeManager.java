@@ -0,0 +1,52 @@
+package com.hyperkinetic.game.engine;
+
+/**
+ * Spends a game clock across the moves of a game. Each move gets an equal share of the remaining time over the
+ * moves the game is still expected to last, plus most of the increment, and never so much that a slow move could
+ * let the clock run out.
+ */
+public class TimeManager
+{
+    /**
+     * Number of moves the game is assumed to last after the current one, whatever has been played.
+     */
+    public static final int MOVES_TO_GO = 25;
+    /**
+     * Time kept back for the network and the server, in milliseconds.
+     */
+    public static final long SAFETY_MARGIN = 200;
+    /**
+     * Shortest time given to a move, in milliseconds.
+     */
+    public static final long MIN_TIME = 20;
+
+    private TimeManager() {}
+
+    /**
+     * @param remaining the time left on the player's clock, in milliseconds
+     * @param increment the time added to the clock after every move, in milliseconds
+     * @return the time to spend on the next move, in milliseconds
+     */
+    public static long allocate(long remaining, long increment)
+    {
+        long usable = remaining - SAFETY_MARGIN;
+        if(usable <= MIN_TIME) return MIN_TIME;
+
+        long share = usable / MOVES_TO_GO + increment * 3 / 4;
+        // one move never takes more than a third of what is left
+        return Math.max(MIN_TIME, Math.min(share, usable / 3));
+    }
+
+    /**
+     * @param remaining the time left on the player's clock, in milliseconds
+     * @param increment the time added to the clock after every move, in milliseconds
+     * @param maxTime the most time to spend on a move whatever the clock, or 0 for no cap
+     * @return the limits of a search for the next move
+     */
+    public static SearchLimits limits(long remaining, long increment, long maxTime)
+    {
+        long time = allocate(remaining, increment);
+        if(maxTime > 0) time = Math.min(time, maxTime);
+        return SearchLimits.time(time);
+    }
+}
@@ -0,0 +1,334 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+import com.hyperkinetic.game.core.LaserGame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a match between two players on the StandardBoard without any graphics, to tell whether a change makes the
+ * engine stronger or faster.
+ *
+ * Games run concurrently, one per thread, each thread with its own engines. Games come in pairs: both games of a
+ * pair start with the same random opening, derived from the seed and the pair, and the players swap colours
+ * between them. Every game is reproducible from its seed, so two runs of the same match with deterministic players
+ * play the same games.
+ *
+ * The match reports the Elo difference of the first player over the second with its 95% error bar, the games
+ * played per second and the average time each player took for a move.
+ */
+public class Tournament
+{
+    /**
+     * Number of games played by default.
+     */
+    public static final int DEFAULT_GAMES = 1000;
+    /**
+     * Number of random turns that open every pair of games.
+     */
+    public static final int RANDOM_PLIES = 4;
+    /**
+     * Length after which a game is scored as a draw.
+     */
+    public static final int MAX_TURNS = 200;
+
+    private final Entrant first;
+    private final Entrant second;
+    private final long seed;
+
+    private final AtomicInteger wins = new AtomicInteger();
+    private final AtomicInteger draws = new AtomicInteger();
+    private final AtomicInteger losses = new AtomicInteger();
+    /**
+     * Moves played and the time they took in nanoseconds, for the first and second player.
+     */
+    private final AtomicLong[] moves = { new AtomicLong(), new AtomicLong() };
+    private final AtomicLong[] moveTime = { new AtomicLong(), new AtomicLong() };
+    /**
+     * Engines of all threads, to shut down after the match.
+     */
+    private final List<SearchEngine> created = new ArrayList<>();
+
+    /**
+     * @param first the player the Elo difference is reported for
+     * @param second its opponent
+     * @param seed the seed of the openings and of the random players
+     */
+    public Tournament(Entrant first, Entrant second, long seed)
+    {
+        this.first = first;
+        this.second = second;
+        this.seed = seed;
+    }
+
+    /**
+     * Plays the match.
+     *
+     * @param games the number of games, rounded up to an even number so every opening is played with both colours
+     * @param threads the number of games played at once
+     */
+    public void play(int games, int threads) throws InterruptedException
+    {
+        final int total = games + (games & 1);
+        final ThreadLocal<SearchEngine[]> engines = new ThreadLocal<SearchEngine[]>()
+        {
+            @Override
+            protected SearchEngine[] initialValue()
+            {
+                SearchEngine[] retval = { first.create(), second.create() };
+                synchronized(created) {
+                    created.add(retval[0]);
+                    created.add(retval[1]);
+                }
+                return retval;
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < total; i++)
+        {
+            final int game = i;
+            pool.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        playGame(game, engines.get());
+                    } catch(RuntimeException re) {
+                        re.printStackTrace();
+                    }
+
+                    int played = wins.get() + draws.get() + losses.get();
+                    if(played % 100 == 0) System.out.println(played + "/" + total + " " + score());
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        for(SearchEngine engine : created)
+            if(engine instanceof MctsEngine) ((MctsEngine) engine).shutdown();
+
+        int played = wins.get() + draws.get() + losses.get();
+        System.out.println(first + " vs " + second + ": " + score());
+        System.out.printf("%d games in %.1fs, %.2f games/sec on %d threads%n", played, elapsed / 1000.0,
+                played * 1000.0 / Math.max(1, elapsed), threads);
+        System.out.printf("average move %.2fms for %s, %.2fms for %s%n", averageMove(0), first, averageMove(1),
+                second);
+    }
+
+    /**
+     * Plays one game. Even games have the first player as white.
+     */
+    private void playGame(int game, SearchEngine[] players)
+    {
+        long gameSeed = seed * 1000003 + game;
+        Random random = new Random(seed * 1000003 + game / 2);
+        BoardState state = new StandardBoard(true).getState();
+        LaserTrace trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        int[] list = new int[Move.MAX_MOVES];
+
+        for(int ply = 0; ply < RANDOM_PLIES && state.hasKing(true) && state.hasKing(false); ply++)
+        {
+            int count = state.generateMoves(state.isWhiteToMove(), list, 0);
+            state.makeTurn(list[random.nextInt(count)], trace);
+        }
+
+        boolean firstWhite = (game & 1) == 0;
+        for(int player = 0; player < 2; player++)
+        {
+            if(players[player] instanceof AlphaBetaEngine) ((AlphaBetaEngine) players[player]).newGame();
+        }
+
+        for(int turn = 0; turn < MAX_TURNS && state.hasKing(true) && state.hasKing(false); turn++)
+        {
+            int player = state.isWhiteToMove() == firstWhite ? 0 : 1;
+            Entrant entrant = player == 0 ? first : second;
+            SearchEngine engine = players[player];
+            entrant.prepare(engine, gameSeed * MAX_TURNS + turn);
+
+            long moveStart = System.nanoTime();
+            int move = engine.search(state, entrant.limits).move;
+            moveTime[player].addAndGet(System.nanoTime() - moveStart);
+            moves[player].incrementAndGet();
+
+            if(move == Move.NONE) break;
+            state.makeTurn(move, trace);
+        }
+
+        // the black king is checked first, as in getGameState()
+        if(!state.hasKing(false)) (firstWhite ? wins : losses).incrementAndGet();
+        else if(!state.hasKing(true)) (firstWhite ? losses : wins).incrementAndGet();
+        else draws.incrementAndGet();
+    }
+
+    private double averageMove(int player)
+    {
+        long count = moves[player].get();
+        return count == 0 ? 0 : moveTime[player].get() / 1e6 / count;
+    }
+
+    /**
+     * @return the results so far and the Elo difference they give
+     */
+    public String score()
+    {
+        int w = wins.get();
+        int d = draws.get();
+        int l = losses.get();
+        int n = w + d + l;
+        if(n == 0) return "no games";
+
+        double score = (w + d / 2.0) / n;
+        // standard error of the mean score of a game, then the 95% interval mapped to Elo
+        double variance = (w * sq(1 - score) + d * sq(0.5 - score) + l * sq(score)) / n;
+        double margin = 1.96 * Math.sqrt(variance / n);
+        double low = elo(score - margin);
+        double high = elo(score + margin);
+        return String.format("+%d =%d -%d, score %.1f%%, Elo %+.1f +/- %.1f", w, d, l, score * 100, elo(score),
+                (high - low) / 2);
+    }
+
+    private static double sq(double x) {
+        return x * x;
+    }
+
+    /**
+     * @return the Elo difference that gives an expected score, bounded for scores of 0 and 1
+     */
+    static double elo(double score)
+    {
+        score = Math.max(0.001, Math.min(0.999, score));
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /**
+     * A player of a match, described as <code>kind[:limit=value...]</code>: the kind is <code>alphabeta</code>,
+     * <code>mcts</code> or <code>random</code>, and the limits are <code>depth</code>, <code>nodes</code> and
+     * <code>time</code> as in {@link SearchLimits}. For example <code>alphabeta:depth=3</code> or
+     * <code>mcts:nodes=2000</code>.
+     */
+    public static class Entrant
+    {
+        /**
+         * Size in MB of the transposition table of each alpha-beta engine.
+         */
+        public static final int TABLE_SIZE = 16;
+
+        private final String description;
+        private final String kind;
+        final SearchLimits limits;
+
+        public Entrant(String description)
+        {
+            this.description = description;
+            String[] parts = description.split(":");
+            kind = parts[0];
+            if(!kind.equals("alphabeta") && !kind.equals("mcts") && !kind.equals("random"))
+                throw new IllegalArgumentException("Unknown player " + kind);
+
+            limits = new SearchLimits(0, 0, 0);
+            for(int i = 1; i < parts.length; i++)
+            {
+                String[] option = parts[i].split("=");
+                if(option.length != 2) throw new IllegalArgumentException("Bad option " + parts[i]);
+                long value = Long.parseLong(option[1]);
+                if(option[0].equals("depth")) limits.depth = (int) value;
+                else if(option[0].equals("nodes")) limits.nodes = value;
+                else if(option[0].equals("time")) limits.time = value;
+                else throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+            if(limits.depth == 0 && limits.nodes == 0 && limits.time == 0)
+            {
+                if(kind.equals("alphabeta")) limits.depth = 3;
+                else if(kind.equals("mcts")) limits.nodes = 1000;
+            }
+        }
+
+        /**
+         * @return a new engine for one thread of the match
+         */
+        SearchEngine create()
+        {
+            switch(kind)
+            {
+                case "alphabeta":
+                    return new AlphaBetaEngine(TABLE_SIZE);
+                case "mcts":
+                    return new MctsEngine(1);
+                default:
+                    return new RandomPlayer();
+            }
+        }
+
+        /**
+         * Seeds an engine before a move, so the move only depends on the game and the position.
+         */
+        void prepare(SearchEngine engine, long seed)
+        {
+            // a seed of 0 would make the tree search parallel
+            if(engine instanceof MctsEngine) ((MctsEngine) engine).setSeed(seed == 0 ? 1 : seed);
+            else if(engine instanceof RandomPlayer) ((RandomPlayer) engine).random.setSeed(seed);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Plays a uniformly random legal move.
+     */
+    private static class RandomPlayer implements SearchEngine
+    {
+        final Random random = new Random();
+        final int[] moves = new int[Move.MAX_MOVES];
+
+        @Override
+        public SearchResult search(BoardState root, SearchLimits limits)
+        {
+            int count = root.generateMoves(root.isWhiteToMove(), moves, 0);
+            int move = count == 0 ? Move.NONE : moves[random.nextInt(count)];
+            return new SearchResult(move, 0, 0, 0, 0);
+        }
+
+        @Override
+        public void stop() {}
+    }
+
+    /**
+     * Usage: <code>Tournament first second [games] [threads] [seed]</code>, for example
+     * <code>Tournament alphabeta:depth=3 mcts:nodes=2000 1000</code>.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        LaserGame.IS_SERVER = true;
+        if(args.length < 2)
+        {
+            System.out.println("Usage: Tournament first second [games] [threads] [seed]");
+            return;
+        }
+        Entrant first = new Entrant(args[0]);
+        Entrant second = new Entrant(args[1]);
+        int games = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_GAMES;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+        new Tournament(first, second, seed).play(games, threads);
+    }
+}
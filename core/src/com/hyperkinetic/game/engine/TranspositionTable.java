@@ -0,0 +1,296 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.Move;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash table of search results stored outside the Java heap, sized in megabytes.
+ *
+ * Each entry is two longs: the entry data and the position key XORed with that data. A reader only accepts an
+ * entry if XORing the two words gives back its own key, so an entry torn by two threads writing at the same time
+ * reads as a miss instead of as a wrong result. This lets several search threads share the table without locks.
+ *
+ * The entry data packs the best move in the low 16 bits, then a signed 16 bit score, the search depth (8 bits),
+ * the bound type (2 bits) and the search generation (6 bits).
+ *
+ * The probes, hits and stores are counted by each searching thread in {@link Counters} of its own, so the threads
+ * do not fight over a shared counter, and only added up when they are reported.
+ */
+public class TranspositionTable
+{
+    /**
+     * Bound type of an empty entry.
+     */
+    public static final int NONE = 0;
+    /**
+     * The score is the exact value of the position.
+     */
+    public static final int EXACT = 1;
+    /**
+     * The score is a lower bound of the value of the position (the search failed high).
+     */
+    public static final int LOWER = 2;
+    /**
+     * The score is an upper bound of the value of the position (the search failed low).
+     */
+    public static final int UPPER = 3;
+
+    /**
+     * Size of an entry in bytes.
+     */
+    private static final int ENTRY_BYTES = 16;
+    /**
+     * Number of entries sampled by {@link #getOccupancy()}.
+     */
+    private static final int OCCUPANCY_SAMPLE = 4096;
+
+    private final ByteBuffer entries;
+    private final long mask;
+    private final long capacity;
+
+    /**
+     * Generation of the current search, used to replace entries left over from earlier searches first.
+     */
+    private volatile int generation;
+
+    /**
+     * Counters of every thread that searches this table.
+     */
+    private final List<Counters> counters = new ArrayList<>();
+
+    /**
+     * @param megabytes the size of the table; it is rounded down to a power of two number of entries
+     */
+    public TranspositionTable(int megabytes)
+    {
+        if(megabytes <= 0 || megabytes > 1024)
+            throw new IllegalArgumentException("Unsupported table size " + megabytes + " MB");
+
+        long count = Long.highestOneBit((long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+        capacity = count;
+        mask = count - 1;
+        entries = ByteBuffer.allocateDirect((int) (count * ENTRY_BYTES)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Computes the key a board is stored under.
+     *
+     * @param board the board to look up
+     * @return the 64-bit key of the position on the board
+     */
+    public static long key(AbstractGameBoard board) {
+        return board.getPositionKey();
+    }
+
+    /**
+     * Computes the key a board state is stored under.
+     *
+     * @param state the position to look up
+     * @return the 64-bit key of the position
+     */
+    public static long key(BoardState state) {
+        return state.getKey();
+    }
+
+    /**
+     * Creates the counters of a thread that searches this table. They are included in the totals of the table.
+     *
+     * @return counters to pass to {@link #probe(long, Counters)} and {@link #store}, used by one thread only
+     */
+    public synchronized Counters newCounters()
+    {
+        Counters retval = new Counters();
+        counters.add(retval);
+        return retval;
+    }
+
+    /**
+     * Looks up a position without counting the probe.
+     *
+     * @param key the key of the position
+     * @return the entry data, to be unpacked with {@link #move}, {@link #score}, {@link #depth} and {@link #bound},
+     * or 0 if the position is not in the table
+     */
+    public long probe(long key)
+    {
+        int index = index(key);
+        long data = entries.getLong(index);
+        long check = entries.getLong(index + 8);
+
+        if(data == 0 || (check ^ data) != key) return 0;
+        return data;
+    }
+
+    /**
+     * Looks up a position and counts the probe.
+     *
+     * @param key the key of the position
+     * @param counters the counters of the calling thread
+     * @return the entry data as for {@link #probe(long)}
+     */
+    public long probe(long key, Counters counters)
+    {
+        counters.probes++;
+        long data = probe(key);
+        if(data != 0) counters.hits++;
+        return data;
+    }
+
+    /**
+     * Stores the result of searching a position. An entry of the same position is always replaced; an entry of
+     * another position is only replaced if it was stored by an earlier search or searched no deeper.
+     *
+     * @param key the key of the position
+     * @param depth the depth searched, from 0 to 255
+     * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+     * @param score the score, which must fit in 16 signed bits
+     * @param move the best move found, or {@link Move#NONE}
+     * @param counters the counters of the calling thread
+     */
+    public void store(long key, int depth, int bound, int score, int move, Counters counters)
+    {
+        int index = index(key);
+        long old = entries.getLong(index);
+        if(old != 0 && (entries.getLong(index + 8) ^ old) != key &&
+                generation(old) == generation && depth(old) > depth)
+            return;
+
+        long data = (move & 0xFFFFL)
+                | (score & 0xFFFFL) << 16
+                | (long) (depth & 0xFF) << 32
+                | (long) (bound & 3) << 40
+                | (long) (generation & 0x3F) << 42;
+        entries.putLong(index, data);
+        entries.putLong(index + 8, key ^ data);
+        counters.stores++;
+    }
+
+    /**
+     * Marks the start of a new search, so entries of earlier searches are replaced first.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0x3F;
+    }
+
+    /**
+     * Empties the table and resets its counters.
+     */
+    public void clear()
+    {
+        for(long i = 0; i < capacity * ENTRY_BYTES; i += 8)
+            entries.putLong((int) i, 0L);
+        synchronized(this) {
+            for(Counters c : counters)
+            {
+                c.probes = 0;
+                c.hits = 0;
+                c.stores = 0;
+            }
+        }
+        generation = 0;
+    }
+
+    public static int move(long data)
+    {
+        int move = (int) (data & 0xFFFF);
+        return move == 0xFFFF ? Move.NONE : move;
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> 16);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 40) & 3;
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> 42) & 0x3F;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getProbes()
+    {
+        long sum = 0;
+        for(Counters c : counters)
+            sum += c.probes;
+        return sum;
+    }
+
+    public synchronized long getHits()
+    {
+        long sum = 0;
+        for(Counters c : counters)
+            sum += c.hits;
+        return sum;
+    }
+
+    public synchronized long getStores()
+    {
+        long sum = 0;
+        for(Counters c : counters)
+            sum += c.stores;
+        return sum;
+    }
+
+    /**
+     * @return the fraction of probes that found their position
+     */
+    public double getHitRate()
+    {
+        long p = getProbes();
+        return p == 0 ? 0 : (double) getHits() / p;
+    }
+
+    /**
+     * Estimates the fraction of entries in use by sampling the start of the table.
+     *
+     * @return the occupancy, from 0 to 1
+     */
+    public double getOccupancy()
+    {
+        long sample = Math.min(capacity, OCCUPANCY_SAMPLE);
+        int used = 0;
+        for(int i = 0; i < sample; i++)
+            if(entries.getLong(i * ENTRY_BYTES) != 0) used++;
+        return (double) used / sample;
+    }
+
+    private int index(long key) {
+        return (int) (key & mask) * ENTRY_BYTES;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d entries, %.1f%% full, %d probes, %.1f%% hits, %d stores",
+                capacity, getOccupancy() * 100, getProbes(), getHitRate() * 100, getStores());
+    }
+
+    /**
+     * The probes, hits and stores of one thread. Only that thread writes them; the totals read while it searches
+     * may lag slightly behind.
+     */
+    public static class Counters
+    {
+        private long probes;
+        private long hits;
+        private long stores;
+    }
+}
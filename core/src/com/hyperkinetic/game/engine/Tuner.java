@@ -0,0 +1,453 @@
+package com.hyperkinetic.game.engine;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tunes the weights of the {@link Evaluator} on positions labelled with the result of the game they were played
+ * in. The score of a position is turned into an expected result by a logistic curve, and the weights are moved by
+ * gradient descent to make the squared difference between expected and real results as small as possible.
+ *
+ * The evaluation is linear in its weights, so a position is stored as the handful of small numbers its weights are
+ * multiplied by (the difference in pieces of each kind, in guardians next to the king, and whether each laser
+ * passes at each distance from the other king) followed by the result, one byte each. A million positions take
+ * ten megabytes, and the loss and its gradient are summed in parallel over ranges of the array on a ForkJoinPool.
+ *
+ * The weights are written to a checkpoint file every few iterations, which {@link Evaluator#loadDefaultWeights()}
+ * reads when the game starts.
+ */
+public class Tuner
+{
+    /**
+     * Number of tuned weights: three piece values, the guardian cover and four proximity values.
+     */
+    public static final int WEIGHTS = 3 + 1 + 4;
+    /**
+     * Number of random turns that open every recorded game, so the games differ.
+     */
+    public static final int RANDOM_PLIES = 8;
+    /**
+     * Length after which a recorded game is scored as a draw.
+     */
+    public static final int MAX_TURNS = 200;
+    /**
+     * Number of iterations between two checkpoints.
+     */
+    public static final int CHECKPOINT_INTERVAL = 25;
+    /**
+     * Step of the gradient descent, in units of a weight.
+     */
+    public static final double LEARNING_RATE = 1.0;
+
+    private static final int MAGIC = 0x4C545031;
+    /**
+     * Bytes per position: the features, then the result for white (0 lost, 1 drawn, 2 won).
+     */
+    private static final int STRIDE = WEIGHTS + 1;
+    /**
+     * Number of positions a parallel task handles without splitting.
+     */
+    private static final int CHUNK = 1 << 15;
+
+    /**
+     * The positions, {@link #STRIDE} bytes each.
+     */
+    private final byte[] data;
+    private final int size;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param data the positions as read by {@link #read}
+     * @param pool the threads to compute the loss with
+     */
+    public Tuner(byte[] data, ForkJoinPool pool)
+    {
+        this.data = data;
+        this.size = data.length / STRIDE;
+        this.pool = pool;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the current weights of the {@link Evaluator}, in the order of the features
+     */
+    public static double[] currentWeights()
+    {
+        double[] retval = new double[WEIGHTS];
+        for(int i = 0; i < 3; i++)
+            retval[i] = Evaluator.PIECE_VALUES[BoardState.GUARDIAN + i];
+        retval[3] = Evaluator.guardianCover;
+        for(int i = 0; i < 4; i++)
+            retval[4 + i] = Evaluator.LASER_PROXIMITY[i];
+        return retval;
+    }
+
+    /**
+     * Makes the {@link Evaluator} use a set of weights, rounded to whole numbers.
+     */
+    public static void apply(double[] weights)
+    {
+        for(int i = 0; i < 3; i++)
+            Evaluator.PIECE_VALUES[BoardState.GUARDIAN + i] = (int) Math.round(weights[i]);
+        Evaluator.guardianCover = (int) Math.round(weights[3]);
+        for(int i = 0; i < 4; i++)
+            Evaluator.LASER_PROXIMITY[i] = (int) Math.round(weights[4 + i]);
+    }
+
+    /**
+     * Extracts the features of a position, from the point of view of white. The score the {@link Evaluator} gives
+     * white is the sum of the features times their weights.
+     *
+     * @param features receives {@link #WEIGHTS} values from <code>offset</code>
+     */
+    static void features(BoardState state, LaserTrace trace, byte[] features, int offset)
+    {
+        for(int i = 0; i < 3; i++)
+        {
+            int kind = BoardState.GUARDIAN + i;
+            features[offset + i] = (byte) (state.countPieces(kind, true) - state.countPieces(kind, false));
+        }
+
+        int whiteKing = state.findPiece(BoardState.KING, true);
+        int blackKing = state.findPiece(BoardState.KING, false);
+        features[offset + 3] = (byte) (Evaluator.cover(state, whiteKing, true) -
+                Evaluator.cover(state, blackKing, false));
+
+        trace.fire(state, true);
+        int white = Evaluator.distance(state, trace.getPath(0), trace.getPath(1), blackKing);
+        trace.fire(state, false);
+        int black = Evaluator.distance(state, trace.getPath(0), trace.getPath(1), whiteKing);
+        for(int i = 0; i < 4; i++)
+            features[offset + 4 + i] = (byte) ((white == i ? 1 : 0) - (black == i ? 1 : 0));
+    }
+
+    /**
+     * Computes the mean squared error of the expected results and, optionally, its gradient.
+     *
+     * @param weights the weights to score the positions with
+     * @param k the scale of the logistic curve
+     * @param gradient receives the gradient, or null to only compute the error
+     * @return the mean squared error
+     */
+    public double loss(double[] weights, double k, double[] gradient)
+    {
+        double[] sums = pool.invoke(new Loss(weights, k, gradient != null, 0, size));
+        if(gradient != null)
+        {
+            for(int i = 0; i < WEIGHTS; i++)
+                gradient[i] = sums[1 + i] / size;
+        }
+        return sums[0] / size;
+    }
+
+    /**
+     * Finds the scale of the logistic curve that best fits the results with the given weights, by golden section
+     * search over its logarithm.
+     */
+    public double fitScale(double[] weights)
+    {
+        double phi = (Math.sqrt(5) - 1) / 2;
+        double low = Math.log(0.001);
+        double high = Math.log(10);
+        for(int i = 0; i < 40; i++)
+        {
+            double a = high - phi * (high - low);
+            double b = low + phi * (high - low);
+            if(loss(weights, Math.exp(a), null) < loss(weights, Math.exp(b), null)) high = b;
+            else low = a;
+        }
+        return Math.exp((low + high) / 2);
+    }
+
+    /**
+     * Tunes the weights, writing them to a checkpoint file as it goes.
+     *
+     * @param weights the weights to start from; they are updated in place
+     * @param iterations the number of gradient steps
+     * @param checkpoint the file to write the weights to
+     */
+    public void tune(double[] weights, int iterations, File checkpoint) throws IOException
+    {
+        double k = fitScale(weights);
+        System.out.printf("%d positions, scale %.3f, error %.6f%n", size, k, loss(weights, k, null));
+
+        // Adam: every weight moves by about the learning rate, whatever the size of its gradient
+        double[] gradient = new double[WEIGHTS];
+        double[] mean = new double[WEIGHTS];
+        double[] variance = new double[WEIGHTS];
+        double beta1 = 0.9;
+        double beta2 = 0.999;
+        long start = System.currentTimeMillis();
+
+        for(int iteration = 1; iteration <= iterations; iteration++)
+        {
+            double error = loss(weights, k, gradient);
+            for(int i = 0; i < WEIGHTS; i++)
+            {
+                mean[i] = beta1 * mean[i] + (1 - beta1) * gradient[i];
+                variance[i] = beta2 * variance[i] + (1 - beta2) * gradient[i] * gradient[i];
+                double m = mean[i] / (1 - Math.pow(beta1, iteration));
+                double v = variance[i] / (1 - Math.pow(beta2, iteration));
+                weights[i] -= LEARNING_RATE * m / (Math.sqrt(v) + 1e-12);
+            }
+
+            if(iteration % CHECKPOINT_INTERVAL == 0 || iteration == iterations)
+            {
+                apply(weights);
+                Evaluator.saveWeights(checkpoint, "iteration " + iteration + ", error " + error);
+                System.out.printf("iteration %d, error %.6f, %dms%n", iteration, error,
+                        System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Sums the error and its gradient over a range of positions.
+     */
+    private class Loss extends RecursiveTask<double[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final double[] weights;
+        final double k;
+        final boolean withGradient;
+        final int from;
+        final int to;
+
+        Loss(double[] weights, double k, boolean withGradient, int from, int to)
+        {
+            this.weights = weights;
+            this.k = k;
+            this.withGradient = withGradient;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute()
+        {
+            if(to - from > CHUNK)
+            {
+                int mid = (from + to) >>> 1;
+                Loss left = new Loss(weights, k, withGradient, from, mid);
+                left.fork();
+                double[] right = new Loss(weights, k, withGradient, mid, to).compute();
+                double[] retval = left.join();
+                for(int i = 0; i < retval.length; i++)
+                    retval[i] += right[i];
+                return retval;
+            }
+
+            double[] retval = new double[1 + WEIGHTS];
+            double scale = k * Math.log(10) / 400;
+            for(int p = from; p < to; p++)
+            {
+                int offset = p * STRIDE;
+                double score = 0;
+                for(int i = 0; i < WEIGHTS; i++)
+                    score += weights[i] * data[offset + i];
+                double expected = 1 / (1 + Math.exp(-scale * score));
+                double diff = expected - data[offset + WEIGHTS] / 2.0;
+                retval[0] += diff * diff;
+
+                if(!withGradient) continue;
+                double slope = 2 * diff * expected * (1 - expected) * scale;
+                for(int i = 0; i < WEIGHTS; i++)
+                    retval[1 + i] += slope * data[offset + i];
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Reads a file of labelled positions into one array.
+     *
+     * @param file a file written by {@link #record}
+     * @return the positions, {@link #STRIDE} bytes each
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] read(File file) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(dis.readInt() != MAGIC || dis.readInt() != WEIGHTS)
+                throw new IOException(file + " is not a position file for these weights");
+            long count = (file.length() - 8) / STRIDE;
+            if(count * STRIDE > Integer.MAX_VALUE) throw new IOException(file + " has too many positions");
+            byte[] retval = new byte[(int) count * STRIDE];
+            dis.readFully(retval);
+            return retval;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Plays games of the engine against itself in parallel and writes every position after the opening with the
+     * result of its game.
+     *
+     * @param file the file to write
+     * @param games the number of games
+     * @param depth the search depth of every move
+     * @param threads the number of games played at once
+     * @param seed the seed of the random openings
+     * @return the number of positions written
+     */
+    public static int record(File file, int games, final int depth, int threads, final long seed)
+            throws IOException, InterruptedException
+    {
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        final AtomicInteger positions = new AtomicInteger();
+        final ThreadLocal<AlphaBetaEngine> engines = new ThreadLocal<AlphaBetaEngine>()
+        {
+            @Override
+            protected AlphaBetaEngine initialValue() {
+                return new AlphaBetaEngine(16);
+            }
+        };
+
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(WEIGHTS);
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            for(int i = 0; i < games; i++)
+            {
+                final int game = i;
+                pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        byte[] record = playGame(engines.get(), depth, new Random(seed * 1000003 + game));
+                        synchronized(dos) {
+                            try {
+                                dos.write(record);
+                            } catch(IOException ioe) {
+                                ioe.printStackTrace();
+                            }
+                        }
+                        positions.addAndGet(record.length / STRIDE);
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            dos.close();
+        }
+        return positions.get();
+    }
+
+    /**
+     * Plays one game and labels its positions.
+     *
+     * @return the positions after the opening, {@link #STRIDE} bytes each
+     */
+    private static byte[] playGame(AlphaBetaEngine engine, int depth, Random random)
+    {
+        BoardState state = new StandardBoard(true).getState();
+        LaserTrace trace = new LaserTrace();
+        trace.setRecordSegments(false);
+        int[] moves = new int[Move.MAX_MOVES];
+        byte[] record = new byte[MAX_TURNS * STRIDE];
+        int count = 0;
+
+        engine.getTable().clear();
+        for(int turn = 0; turn < MAX_TURNS && state.hasKing(true) && state.hasKing(false); turn++)
+        {
+            int move;
+            if(turn < RANDOM_PLIES)
+            {
+                int n = state.generateMoves(state.isWhiteToMove(), moves, 0);
+                move = moves[random.nextInt(n)];
+            }
+            else
+            {
+                features(state, trace, record, count * STRIDE);
+                count++;
+                move = engine.search(state, SearchLimits.depth(depth)).move;
+                if(move == Move.NONE) break;
+            }
+            state.makeTurn(move, trace);
+        }
+
+        // the black king is checked first, as in getGameState()
+        byte result = !state.hasKing(false) ? (byte) 2 : !state.hasKing(true) ? (byte) 0 : (byte) 1;
+        byte[] retval = new byte[count * STRIDE];
+        for(int i = 0; i < count; i++)
+        {
+            System.arraycopy(record, i * STRIDE, retval, i * STRIDE, WEIGHTS);
+            retval[i * STRIDE + WEIGHTS] = result;
+        }
+        return retval;
+    }
+
+    /**
+     * Usage:
+     * <ul>
+     *     <li><code>Tuner record file games [depth] [threads] [seed]</code> records labelled positions from
+     *     self-play,</li>
+     *     <li><code>Tuner tune file [iterations] [weightsFile]</code> tunes the weights on them, starting from the
+     *     weights file if there is one.</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String command = args.length > 0 ? args[0] : "tune";
+        File file = new File(args.length > 1 ? args[1] : "positions.bin");
+
+        if(command.equals("record"))
+        {
+            int games = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            int depth = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+            long start = System.currentTimeMillis();
+            int positions = record(file, games, depth, threads, seed);
+            System.out.println("recorded " + positions + " positions from " + games + " games in " +
+                    (System.currentTimeMillis() - start) + "ms");
+        }
+        else
+        {
+            int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+            File checkpoint = new File(args.length > 3 ? args[3] : Evaluator.WEIGHTS_FILE);
+            if(checkpoint.isFile()) Evaluator.loadWeights(checkpoint);
+
+            long start = System.currentTimeMillis();
+            byte[] data = read(file);
+            ForkJoinPool pool = new ForkJoinPool();
+            Tuner tuner = new Tuner(data, pool);
+            System.out.println("loaded " + tuner.size() + " positions in " + (System.currentTimeMillis() - start) +
+                    "ms, tuning on " + pool.getParallelism() + " threads");
+
+            double[] weights = currentWeights();
+            tuner.tune(weights, iterations, checkpoint);
+            System.out.println("wrote " + checkpoint + ": pieces " + Arrays.toString(Evaluator.PIECE_VALUES) +
+                    ", cover " + Evaluator.guardianCover + ", proximity " + Arrays.toString(Evaluator.LASER_PROXIMITY));
+            pool.shutdown();
+        }
+    }
+}
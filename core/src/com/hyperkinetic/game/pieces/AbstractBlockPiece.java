@@ -1,7 +1,6 @@
 package com.hyperkinetic.game.pieces;
 
 import com.badlogic.gdx.graphics.Texture;
-import com.badlogic.gdx.utils.Array;
 import com.hyperkinetic.game.util.Directions;
 
 import static com.hyperkinetic.game.util.Directions.Direction.*;
@@ -63,14 +62,11 @@ public abstract class AbstractBlockPiece extends AbstractGamePiece
             orientation = NORTH;
     }
 
-    /**
-     * Defines the behaviour of a laser when it encounters this game piece.
-     *
-     * @param laserDirection the direction of the incoming laser
-     * @return an {@link Array} of Directions representing the outgoing lasers from this piece,
-     * or null if the laser is not reflected.
-     */
-    public abstract Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection);
+    @Override
+    public int getOrientationIndex()
+    {
+        return Directions.quarterTurns(orientation);
+    }
 
     @Override
     protected Texture getTexture()
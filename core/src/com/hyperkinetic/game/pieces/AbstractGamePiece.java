@@ -5,6 +5,7 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.Array;
 import com.hyperkinetic.game.board.AbstractBoardTile;
 import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -94,14 +95,31 @@ public abstract class AbstractGamePiece
      */
     public abstract void rotateLeft();
 
+    /**
+     * Getter of the kind of this piece.
+     *
+     * @return one of the piece kinds defined in {@link BoardState}
+     */
+    public abstract int getKind();
+
+    /**
+     * Getter of the orientation of this piece in clockwise quarter turns from its rest position.
+     *
+     * @return the orientation index used by {@link BoardState}
+     */
+    public abstract int getOrientationIndex();
+
     /**
      * Defines the behaviour of a laser when it encounters this game piece.
      *
      * @param laserDirection the direction of the incoming laser
-     * @return an {@link Array} of Directions representing the outgoing lasers from this piece,
-     * or null if the laser is not reflected.
+     * @return a bitmask of the outgoing laser directions, {@link Directions#ABSORBED} if the laser is stopped,
+     * or {@link Directions#DESTROYED} if this piece is destroyed
      */
-    public abstract Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection);
+    public int acceptLaser(Directions.Direction laserDirection)
+    {
+        return Directions.outgoing(getKind(), getOrientationIndex(), laserDirection);
+    }
 
     /**
      * Defines the behaviour of a game piece when it is picked up
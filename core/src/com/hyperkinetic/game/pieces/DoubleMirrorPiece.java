@@ -1,7 +1,7 @@
 package com.hyperkinetic.game.pieces;
 
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.utils.Array;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -13,30 +13,8 @@ public class DoubleMirrorPiece extends AbstractMirrorPiece {
     public DoubleMirrorPiece () {}
 
     @Override
-    public Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection) {
-        Directions.MirrorDirection oppositeSide = null;
-
-        if(orientation == Directions.MirrorDirection.NORTHWEST)
-            oppositeSide = Directions.MirrorDirection.SOUTHEAST;
-        else if(orientation == Directions.MirrorDirection.NORTHEAST)
-            oppositeSide = Directions.MirrorDirection.SOUTHWEST;
-        else if (orientation == Directions.MirrorDirection.SOUTHWEST)
-            oppositeSide = Directions.MirrorDirection.NORTHEAST;
-        else if(orientation == Directions.MirrorDirection.SOUTHEAST)
-            oppositeSide = Directions.MirrorDirection.NORTHWEST;
-
-        Directions.Direction reflectionDir = Directions.reflect(orientation, laserDirection);
-        Directions.Direction oppositeReflectionDir = Directions.reflect(oppositeSide, laserDirection);
-        Array<Directions.Direction> reflectedLaserDirection = new Array<>();
-
-        if(reflectionDir == null){
-            reflectedLaserDirection.add(oppositeReflectionDir);
-        }
-        else if (oppositeReflectionDir == null) {
-            reflectedLaserDirection.add(reflectionDir);
-        }
-        reflectedLaserDirection.add(laserDirection);
-        return reflectedLaserDirection;
+    public int getKind() {
+        return BoardState.DOUBLE_MIRROR;
     }
 
     @Override
@@ -1,6 +1,6 @@
 package com.hyperkinetic.game.pieces;
 
-import com.badlogic.gdx.utils.Array;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -12,22 +12,8 @@ public class GuardianPiece extends AbstractBlockPiece {
     public GuardianPiece() {}
 
     @Override
-    public Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection) {
-        Array<Directions.Direction> retval = new Array<>();
-        
-        if (this.orientation ==  Directions.Direction.EAST && laserDirection != Directions.Direction.WEST)
-            return null;
-
-        else if (this.orientation ==  Directions.Direction.WEST && laserDirection != Directions.Direction.EAST)
-            return null;
-
-        else if (this.orientation ==  Directions.Direction.NORTH && laserDirection != Directions.Direction.SOUTH)
-            return null;
-
-        else if (this.orientation ==  Directions.Direction.SOUTH && laserDirection != Directions.Direction.NORTH)
-            return null;
-
-        return retval;
+    public int getKind() {
+        return BoardState.GUARDIAN;
     }
 
     @Override
@@ -1,7 +1,7 @@
 package com.hyperkinetic.game.pieces;
 
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.utils.Array;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -12,8 +12,8 @@ public class KingPiece extends AbstractBlockPiece {
     public KingPiece() {}
 
     @Override
-    public Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection) {
-        return null;
+    public int getKind() {
+        return BoardState.KING;
     }
 
     @Override
@@ -1,7 +1,8 @@
 package com.hyperkinetic.game.pieces;
 
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.utils.Array;
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.Move;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -13,10 +14,8 @@ public class LaserPiece extends AbstractBlockPiece{
     public LaserPiece() {}
 
     @Override
-    public Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection) {
-        Array<Directions.Direction> retval = new Array<>();
-        retval.add(laserDirection);
-        return retval;
+    public int getKind() {
+        return BoardState.LASER;
     }
 
     @Override
@@ -36,21 +35,24 @@ public class LaserPiece extends AbstractBlockPiece{
         textures[3] = LaserGame.loadTexture("pieces/laserpiece" + (!color ? "Red2.png" : "2.png"));
     }
     
-    public String toggleDirection()
+    /**
+     * @return the move type that toggles the firing direction of this laser
+     */
+    public int toggleDirection()
     {
         if(color)
         {
             if(orientation == Directions.Direction.NORTH)
-                return "rotateL";
+                return Move.ROTATE_LEFT;
             else
-                return "rotateR";
+                return Move.ROTATE_RIGHT;
         }
         else
         {
             if(orientation == Directions.Direction.SOUTH)
-                return "rotateL";
+                return Move.ROTATE_LEFT;
             else
-                return "rotateR";
+                return Move.ROTATE_RIGHT;
         }
     }
 }
@@ -2,7 +2,7 @@ package com.hyperkinetic.game.pieces;
 
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.utils.Array;
+import com.hyperkinetic.game.board.BoardState;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.util.Directions;
 
@@ -26,14 +26,9 @@ public class SingleMirrorPiece extends AbstractMirrorPiece
     public SingleMirrorPiece() {}
 
     @Override
-    public Array<Directions.Direction> acceptLaser(Directions.Direction laserDirection)
+    public int getKind()
     {
-        Directions.Direction dir = Directions.reflect(this.orientation, laserDirection);
-        if(dir == null) return null;
-
-        Array<Directions.Direction> reflectedLaserDirection = new Array<>();
-        reflectedLaserDirection.add(dir);
-        return reflectedLaserDirection;
+        return BoardState.SINGLE_MIRROR;
     }
     
     @Override
@@ -0,0 +1,216 @@
+package com.hyperkinetic.game.playflow;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.engine.AlphaBetaEngine;
+import com.hyperkinetic.game.engine.SearchLimits;
+import com.hyperkinetic.game.engine.SearchResult;
+import com.hyperkinetic.game.engine.Tablebases;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers the HINT_REQUEST messages of the GameServer. Hints are searched on a pool of their own, so a hint never
+ * runs on the ServerThread that read it and never holds up the moves of a GameRoom.
+ *
+ * While a hint is searched, a HINT_RESPONSE is sent for every completed iteration, and a last one with hintFinal
+ * set when the search ends. Final answers are cached by position, so a position asked for again is answered at
+ * once. Each user may only have a few hints searching at a time, and the pool only queues a few more; a request
+ * over either limit is answered with an error message instead.
+ */
+public class AnalysisService {
+    /**
+     * Least and most time a hint may be searched for, in milliseconds
+     */
+    public static final long MIN_TIME = 50;
+    public static final long MAX_TIME = 5000;
+    /**
+     * Number of hints waiting for a pool thread before further requests are refused
+     */
+    public static final int QUEUE_SIZE = 32;
+    /**
+     * Number of positions whose final answers are kept
+     */
+    public static final int CACHE_SIZE = 4096;
+    /**
+     * Size in MB of the transposition table of each pool thread
+     */
+    public static final int TABLE_SIZE = 16;
+
+    /**
+     * Endgame tables shared by all pool threads, or null if the server has none
+     */
+    private static final Tablebases tablebases = Tablebases.openDefault();
+    /**
+     * Engines are kept per pool thread, as for the bots
+     */
+    private static final ThreadLocal<AlphaBetaEngine> engines = new ThreadLocal<AlphaBetaEngine>()
+    {
+        @Override
+        protected AlphaBetaEngine initialValue()
+        {
+            AlphaBetaEngine engine = new AlphaBetaEngine(TABLE_SIZE);
+            engine.setTablebases(tablebases);
+            return engine;
+        }
+    };
+
+    private final ThreadPoolExecutor pool;
+    private final int perUser;
+    /**
+     * Hints queued or searching, by user name
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    /**
+     * Final answers by position text, least recently used first
+     */
+    private final Map<String, SearchResult> cache = new LinkedHashMap<String, SearchResult>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SearchResult> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param threads the number of hints searched at once
+     * @param perUser the number of hints one user may have queued or searching
+     */
+    public AnalysisService(int threads, int perUser)
+    {
+        this.perUser = perUser;
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory()
+        {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "analysis " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Answer a HINT_REQUEST. Only checks the request and queues the search, so it may be called from any thread.
+     * @param st the thread of the user who asked
+     * @param request the HINT_REQUEST
+     */
+    public void requestHint(final ServerThread st, GameMessage request)
+    {
+        final String user = st.getUserName();
+        final BoardState state;
+        try {
+            state = BoardState.fromText(request.position);
+        } catch(RuntimeException re) {
+            refuse(st, "the position cannot be read");
+            return;
+        }
+        final String key = state.toText();
+        final long time = Math.max(MIN_TIME, Math.min(MAX_TIME, request.timeBudget));
+
+        SearchResult cached;
+        synchronized(cache) {
+            cached = cache.get(key);
+        }
+        // an answer searched for less time than asked is searched again, unless it is already a forced result
+        if(cached != null && (cached.time >= time || cached.isWinScore()))
+        {
+            st.sendMessage(response(user, cached, true));
+            return;
+        }
+
+        AtomicInteger count = inFlight.get(user);
+        if(count == null)
+        {
+            AtomicInteger created = new AtomicInteger();
+            count = inFlight.putIfAbsent(user, created);
+            if(count == null) count = created;
+        }
+        if(count.incrementAndGet() > perUser)
+        {
+            count.decrementAndGet();
+            refuse(st, "another hint is still being searched");
+            return;
+        }
+
+        final AtomicInteger userCount = count;
+        try {
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        search(st, user, state, key, time);
+                    } catch(RuntimeException re) {
+                        re.printStackTrace();
+                    } finally {
+                        userCount.decrementAndGet();
+                    }
+                }
+            });
+        } catch(RejectedExecutionException ree) {
+            userCount.decrementAndGet();
+            refuse(st, "the server is busy");
+        }
+    }
+
+    /**
+     * Search a hint on a pool thread, sending the best move of every iteration as it completes.
+     */
+    private void search(final ServerThread st, final String user, BoardState state, String key, long time)
+    {
+        AlphaBetaEngine engine = engines.get();
+        engine.setListener(new AlphaBetaEngine.IterationListener()
+        {
+            @Override
+            public void iterationDone(SearchResult result) {
+                st.sendMessage(response(user, result, false));
+            }
+        });
+        SearchResult result;
+        try {
+            result = engine.search(state, SearchLimits.time(time));
+        } finally {
+            engine.setListener(null);
+        }
+
+        // report the time asked for, so a later request with the same budget is served from the cache
+        result = new SearchResult(result.move, result.score, result.depth, result.nodes, Math.max(time, result.time));
+        synchronized(cache) {
+            cache.put(key, result);
+        }
+        st.sendMessage(response(user, result, true));
+    }
+
+    private static GameMessage response(String user, SearchResult result, boolean hintFinal)
+    {
+        GameMessage response = new GameMessage(GameMessage.messageType.HINT_RESPONSE);
+        response.userName = user;
+        response.move = result.move;
+        response.score = result.score;
+        response.depth = result.depth;
+        response.hintFinal = hintFinal;
+        return response;
+    }
+
+    private static void refuse(ServerThread st, String reason)
+    {
+        GameMessage response = new GameMessage(GameMessage.messageType.HINT_RESPONSE);
+        response.userName = st.getUserName();
+        response.errorMessage = reason;
+        response.hintFinal = true;
+        st.sendMessage(response);
+    }
+}
@@ -0,0 +1,152 @@
+package com.hyperkinetic.game.playflow;
+
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.LaserTrace;
+import com.hyperkinetic.game.board.Move;
+import com.hyperkinetic.game.board.StandardBoard;
+import com.hyperkinetic.game.engine.AlphaBetaEngine;
+import com.hyperkinetic.game.engine.OpeningBook;
+import com.hyperkinetic.game.engine.SearchLimits;
+import com.hyperkinetic.game.engine.SearchResult;
+import com.hyperkinetic.game.engine.Tablebases;
+import com.hyperkinetic.game.engine.TimeManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A computer player hosted by the GameServer. It takes the place of a ServerThread in a GameRoom, but has no
+ * socket and no thread of its own: the messages the room sends it are handled where they are sent, and its moves
+ * are searched on the shared bot pool of the server.
+ *
+ * Every move is searched with a fixed node budget, and a room only has one search at a time, so a room never takes
+ * more than one pool thread and the bots of all rooms together never use more than the pool.
+ */
+public class BotServerThread extends ServerThread {
+    /**
+     * Node budget of one move
+     */
+    public static final int MOVE_NODES = 200000;
+    /**
+     * Most time spent on one move in milliseconds, in case the pool is slow; less is spent when the clock runs low
+     */
+    public static final int MOVE_TIME = 1000;
+    /**
+     * Size in MB of the transposition table of each pool thread
+     */
+    public static final int TABLE_SIZE = 16;
+
+    /**
+     * Numbers the bots for their user names
+     */
+    private static final AtomicInteger count = new AtomicInteger();
+    /**
+     * Opening book shared by all bots, or null if the server has none
+     */
+    private static final OpeningBook book = OpeningBook.openDefault();
+    /**
+     * Endgame tables shared by all bots, or null if the server has none
+     */
+    private static final Tablebases tablebases = Tablebases.openDefault();
+    /**
+     * Engines are kept per pool thread rather than per bot, so memory does not grow with the number of rooms
+     */
+    private static final ThreadLocal<AlphaBetaEngine> engines = new ThreadLocal<AlphaBetaEngine>()
+    {
+        @Override
+        protected AlphaBetaEngine initialValue()
+        {
+            AlphaBetaEngine engine = new AlphaBetaEngine(TABLE_SIZE);
+            engine.setBook(book);
+            engine.setTablebases(tablebases);
+            return engine;
+        }
+    };
+
+    private final GameServer gs;
+    private final ExecutorService pool;
+    /**
+     * The position of the game, updated from the MOVE_SUCCESS messages of the room
+     */
+    private BoardState state;
+    private final LaserTrace trace;
+    private boolean white;
+    /**
+     * Time left on the bot's clock and its increment, as last reported by the room
+     */
+    private long clockTime;
+    private long increment;
+
+    /**
+     * @param gs the server
+     * @param pool the pool the bot searches on
+     */
+    public BotServerThread(GameServer gs, ExecutorService pool)
+    {
+        super(gs, "Bot " + count.incrementAndGet());
+        this.gs = gs;
+        this.pool = pool;
+        trace = new LaserTrace();
+        trace.setRecordSegments(false);
+    }
+
+    /**
+     * Receive a message from the GameRoom
+     * @param message the message to be sent
+     */
+    @Override
+    public synchronized void sendMessage(GameMessage message)
+    {
+        if(message.getMessageType() == GameMessage.messageType.ROOM_CREATE)
+        {
+            white = getUserName().equals(message.userName);
+            setClock(message);
+            state = new BoardState(new StandardBoard(true).getState());
+            if(state.isWhiteToMove() == white) schedule();
+        }
+        else if(message.getMessageType() == GameMessage.messageType.MOVE_SUCCESS && state != null)
+        {
+            state.makeTurn(message.move, trace);
+            setClock(message);
+            if(state.isWhiteToMove() == white && state.hasKing(true) && state.hasKing(false)) schedule();
+        }
+    }
+
+    /**
+     * Read the bot's clock from a ROOM_CREATE or MOVE_SUCCESS message
+     * @param message the message from the room
+     */
+    private void setClock(GameMessage message)
+    {
+        clockTime = white ? message.whiteTime : message.blackTime;
+        increment = message.increment;
+    }
+
+    /**
+     * Search the next move on the pool and play it.
+     */
+    private void schedule()
+    {
+        final BoardState position = new BoardState(state);
+        final SearchLimits limits = TimeManager.limits(clockTime, increment, MOVE_TIME);
+        limits.nodes = MOVE_NODES;
+        pool.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                GameRoom room = getRoom();
+                if(room == null || room.isOver) return;
+
+                SearchResult result = engines.get().search(position, limits);
+                if(result.move == Move.NONE || room.isOver) return;
+
+                GameMessage message = new GameMessage(GameMessage.messageType.PLAYER_MOVE);
+                message.userName = getUserName();
+                message.move = result.move;
+                gs.logMessage(message);
+                room.readMessage(message);
+            }
+        });
+    }
+}
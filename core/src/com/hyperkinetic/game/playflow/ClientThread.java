@@ -4,13 +4,32 @@ import com.badlogic.gdx.utils.Json;
 import com.hyperkinetic.game.board.AbstractGameBoard;
 import com.hyperkinetic.game.core.LaserGame;
 import com.hyperkinetic.game.core.LogInScreen;
-import com.hyperkinetic.game.pieces.LaserPiece;
+import com.hyperkinetic.game.engine.OpeningBook;
+import com.hyperkinetic.game.engine.ParallelSearch;
+import com.hyperkinetic.game.engine.Ponderer;
+import com.hyperkinetic.game.engine.SearchLimits;
+import com.hyperkinetic.game.engine.SearchResult;
+import com.hyperkinetic.game.engine.Tablebases;
+import com.hyperkinetic.game.engine.TimeManager;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.Socket;
 import java.util.Vector;
 
 public class ClientThread extends Thread {
+    /**
+     * Most time an AI client spends on each move, in milliseconds.
+     */
+    public static final long AI_MOVE_TIME = 1000;
+    /**
+     * Size of the transposition table of an AI client, in megabytes.
+     */
+    public static final int AI_TABLE_SIZE = 32;
+    /**
+     * Number of threads an AI client searches with.
+     */
+    public static int aiThreads = 1;
+
     /**
      * Input from the server
      */
@@ -37,6 +56,25 @@ public class ClientThread extends Thread {
 
     private LaserGame game;
 
+    /**
+     * The engine that plays for this client if it is an AI.
+     */
+    private ParallelSearch engine;
+    /**
+     * Keeps the engine searching on the opponent's time.
+     */
+    private Ponderer ponderer;
+    /**
+     * Whether this client plays white, and the time left on its clock as last reported by the server
+     */
+    private boolean white;
+    private long clockTime;
+    private long increment;
+    /**
+     * The latest HINT_RESPONSE from the server, or null
+     */
+    private volatile GameMessage hint;
+
     public ClientThread(String hostname, int port, boolean isGuest, boolean isAI, LaserGame game)
     {
         board = null;
@@ -45,6 +83,13 @@ public class ClientThread extends Thread {
         this.userName = null;
         this.game = game;
         loggedIn = false;
+        if(isAI)
+        {
+            engine = new ParallelSearch(aiThreads, AI_TABLE_SIZE);
+            engine.setBook(OpeningBook.openDefault());
+            engine.setTablebases(Tablebases.openDefault());
+            ponderer = new Ponderer(engine);
+        }
 
         try
         {
@@ -69,6 +114,58 @@ public class ClientThread extends Thread {
         player.setPlayerID(null);
     }
 
+    /**
+     * Ask the server for a good move in the current game. The answers arrive as HINT_RESPONSE messages, the best
+     * move so far first and the final one last; see {@link #getHint()}.
+     * @param time the time the server may search for, in milliseconds
+     */
+    public void requestHint(long time)
+    {
+        if(board == null) return;
+        hint = null;
+        GameMessage request = new GameMessage(GameMessage.messageType.HINT_REQUEST);
+        request.userName = userName;
+        request.position = board.getState().toText();
+        request.timeBudget = time;
+        player.sendMessage(request);
+    }
+
+    /**
+     * Getter of the latest hint
+     * @return the latest HINT_RESPONSE, or null if none arrived since the last request
+     */
+    public GameMessage getHint()
+    {
+        return hint;
+    }
+
+    /**
+     * Searches the current position and plays the best move for this AI client, then ponders the opponent's
+     * predicted reply until the next message arrives.
+     */
+    private void playEngineMove()
+    {
+        SearchLimits limits = clockTime > 0 ? TimeManager.limits(clockTime, increment, AI_MOVE_TIME) :
+                SearchLimits.time(AI_MOVE_TIME);
+        SearchResult result = ponderer.respond(board.getState(), limits);
+        System.out.println("AI "+userName+": "+result+", "+ponderer);
+
+        player.sendMove(result.move);
+        board.update(result.move);
+        board.fireLaser();
+        if(!board.isOver) ponderer.ponder(board.getState());
+    }
+
+    /**
+     * Read this client's clock from a ROOM_CREATE or MOVE_SUCCESS message.
+     * @param message the message from the server
+     */
+    private void setClock(GameMessage message)
+    {
+        clockTime = white ? message.whiteTime : message.blackTime;
+        increment = message.increment;
+    }
+
     /**
      * Receive the start-of-game message and constantly check for server packets and process
      */
@@ -109,11 +206,15 @@ public class ClientThread extends Thread {
                             AbstractGameBoard start = message.boardClass.cast(json.fromJson(message.boardClass, message.startBoard));
                             this.board = start;
                             player.setBoard(start);
+                            white = message.userName.equals(userName);
+                            setClock(message);
 
                             // CORE CODE GOES HERE!
                             GameMessage g = new GameMessage(GameMessage.messageType.STATS_RESPONSE);
                             g.errorMessage = "hello";
                             player.sendMessage(g);
+
+                            if(isAI && board.hasTurn()) playEngineMove();
                         }
 
                     } catch (ClassNotFoundException cnfe) {
@@ -128,12 +229,17 @@ public class ClientThread extends Thread {
                         System.out.println("Message received: "+message.getMessage());
 
                         if(message.getMessageType()==GameMessage.messageType.MOVE_SUCCESS){
+                            setClock(message);
                             if(!message.userName.equals(userName)){
-                                board.update(message.x,message.y,message.moveType,message.moveX,message.moveY);
-                                LaserPiece laser = board.getActiveLaser();
-                                board.fireLaser(laser.getX(),laser.getY(),laser.getOrientation());
+                                board.update(message.move);
+                                board.fireLaser();
+                                if(isAI && !board.isOver) playEngineMove();
+                                else if(isAI) ponderer.stop();
                             }
+                        } else if(message.getMessageType()==GameMessage.messageType.HINT_RESPONSE){
+                            hint = message;
                         }  else if(message.getMessageType()==GameMessage.messageType.GAME_OVER){
+                            if(isAI) ponderer.stop();
                             // code below never reached
                             Vector<GameMessage> attached = message.attached;
                             for(GameMessage gm : attached){
@@ -1,23 +1,51 @@
 package com.hyperkinetic.game.playflow;
 
 import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.BoardState;
+import com.hyperkinetic.game.board.Move;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Vector;
 
 public class GameMessage implements Serializable {
-    public static final long serialVersionUID = 1;
+    public static final long serialVersionUID = 4;
     private String timeStamp;
     private GameMessage.messageType type;
 
     public String userName ="";
     public String userName2 ="";
-    public int x=-1;
-    public int y=-1;
-    public String moveType="";
-    public int moveX=-1;
-    public int moveY=-1;
+    /**
+     * The move of a PLAYER_MOVE, MOVE_SUCCESS or MOVE_FAILURE message, packed as described in {@link Move}
+     */
+    public int move=Move.NONE;
+    /**
+     * Time left on the clocks of white and black in milliseconds, in ROOM_CREATE and MOVE_SUCCESS messages.
+     * The times in MOVE_SUCCESS include the increment of the move
+     */
+    public long whiteTime;
+    public long blackTime;
+    /**
+     * Time added to a player's clock after each move, in milliseconds
+     */
+    public long increment;
+    /**
+     * The position of a HINT_REQUEST, as written by {@link BoardState#toText()}
+     */
+    public String position;
+    /**
+     * Time the server may search a HINT_REQUEST for, in milliseconds
+     */
+    public long timeBudget;
+    /**
+     * Score for the side to move and depth of the search behind a HINT_RESPONSE
+     */
+    public int score;
+    public int depth;
+    /**
+     * False for the intermediate HINT_RESPONSE messages sent while the search runs, true for the last one
+     */
+    public boolean hintFinal;
     public String errorMessage;
     public String startBoard;
     public Class<? extends AbstractGameBoard> boardClass;
@@ -45,6 +73,9 @@ public class GameMessage implements Serializable {
         MOVE_SUCCESS,
         MOVE_FAILURE,
         GAME_OVER,
+
+        HINT_REQUEST,
+        HINT_RESPONSE,
     }
 
     public GameMessage(GameMessage.messageType type){
@@ -70,18 +101,15 @@ public class GameMessage implements Serializable {
     public String getMessage(){
         /*...other types of messages...*/
         if(type==messageType.PLAYER_MOVE){
-            return timeStamp+" "+ userName +" selects piece at "+x
-                    +", "+y+", moveType="+moveType+", moveX="+moveX+", moveY="+moveY+".";
+            return timeStamp+" "+ userName +" makes "+Move.toString(move)+".";
         } else if(type==messageType.GAME_OVER){
             return timeStamp+" Game is over. Winner is "+ userName +". Loser is "+ userName2 +". Check the updated stats attached.";
         } else if(type==messageType.ROOM_CREATE){
             return timeStamp+" Game room with players "+ userName +", "+ userName2 +" is created.";
         } else if(type==messageType.MOVE_SUCCESS){
-            return timeStamp+" "+ userName +" selects piece at "+x
-                    +", "+y+", moveType="+moveType+", moveX="+moveX+", moveY="+moveY+" is approved.";
+            return timeStamp+" "+ userName +" makes "+Move.toString(move)+" is approved. Clocks: "+whiteTime/1000+"s / "+blackTime/1000+"s.";
         } else if(type==messageType.MOVE_FAILURE){
-            return timeStamp+" "+ userName +" selects piece at "+x+", "+y+", moveType="
-                    +moveType+", moveX="+moveX+", moveY="+moveY+" is disapproved because "+errorMessage+".";
+            return timeStamp+" "+ userName +" makes "+Move.toString(move)+" is disapproved because "+errorMessage+".";
         } else if(type==messageType.LOGIN_ATTEMPT){
             return timeStamp+" User "+ userName +" attempts to log in with password "+password+".";
         } else if(type==messageType.LOGIN_SUCCESS){
@@ -100,6 +128,12 @@ public class GameMessage implements Serializable {
             return timeStamp+" User "+ userName +"'s records: Game Played: " + numPlayed + "; Wins: " + numWin + "; Losses: " + numLoss + ".";
         } else if(type == messageType.MATCHMAKING_REQUEST) {
             return timeStamp+" User "+ userName +" is requesting an online match.";
+        } else if(type == messageType.HINT_REQUEST) {
+            return timeStamp+" User "+ userName +" is requesting a hint within "+timeBudget+"ms.";
+        } else if(type == messageType.HINT_RESPONSE) {
+            if(errorMessage != null) return timeStamp+" Hint for "+ userName +" is refused because "+errorMessage+".";
+            return timeStamp+" Hint for "+ userName +": "+Move.toString(move)+" at depth "+depth+", score "+score+
+                    (hintFinal ? " (final)." : ".");
         }
         return "";
     }
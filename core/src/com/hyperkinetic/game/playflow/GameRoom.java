@@ -2,17 +2,58 @@ package com.hyperkinetic.game.playflow;
 
 import com.badlogic.gdx.utils.Json;
 import com.hyperkinetic.game.board.AbstractGameBoard;
+import com.hyperkinetic.game.board.LaserTrace;
 import com.hyperkinetic.game.board.StandardBoard;
-import com.hyperkinetic.game.pieces.LaserPiece;
 import com.hyperkinetic.game.playflow.GameMessage.messageType;
 
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GameRoom class, implements basic game flow - this version only supports local mode
  */
 public class GameRoom {
     public static final int PORT = 8000;
+    /**
+     * Time on each player's clock at the start of a game, in milliseconds
+     */
+    public static long initialTime = 5 * 60 * 1000;
+    /**
+     * Time added to a player's clock after each of their moves, in milliseconds
+     */
+    public static long increment = 5 * 1000;
+    /**
+     * Ends the games of players whose clock ran out, shared by all rooms
+     */
+    private static final ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "game clock");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    /**
+     * Updates the database and tells the players for games that ended on the clock, so a slow database does not
+     * hold up the clocks of the other rooms
+     */
+    private static final ExecutorService results = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "game results");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     /**
      * Thread of player a on the server
@@ -37,7 +78,20 @@ public class GameRoom {
     /**
      * Variable that keeps track of whether the game is over
      */
-    public boolean isOver = false;
+    public volatile boolean isOver = false;
+    /**
+     * Time left on the clocks of white (a) and black (b), in milliseconds, not counting the running turn
+     */
+    private long whiteTime;
+    private long blackTime;
+    /**
+     * When the running turn started
+     */
+    private long turnStart;
+    /**
+     * Fires when the player to move runs out of time
+     */
+    private ScheduledFuture<?> flag;
 
     public GameRoom(GameServer gs, ServerThread a, ServerThread b) {
         this.gs = gs;
@@ -50,6 +104,8 @@ public class GameRoom {
         bThread.enterGame(this);
 
         this.board = new StandardBoard(true);
+        whiteTime = initialTime;
+        blackTime = initialTime;
 
         Json json = new Json();
 
@@ -59,6 +115,7 @@ public class GameRoom {
         gm1.boardClass = StandardBoard.class;
         gm1.userName = aThread.getUserName();
         gm1.userName2 = bThread.getUserName();
+        setClocks(gm1);
         aThread.sendMessage(gm1);
 
         GameMessage gm2 = new GameMessage(messageType.ROOM_CREATE);
@@ -67,7 +124,10 @@ public class GameRoom {
         gm2.boardClass = StandardBoard.class;
         gm2.userName = aThread.getUserName();
         gm2.userName2 = bThread.getUserName();
+        setClocks(gm2);
         bThread.sendMessage(gm2);
+
+        startClock();
     }
 
     protected GameRoom()
@@ -94,27 +154,24 @@ public class GameRoom {
     public synchronized void handleMoveAttempt(GameMessage move){
         if(move.getMessageType() != GameMessage.messageType.PLAYER_MOVE) return;
 
+        if(isOver) return;
+
         if(move.userName.equals(getActivePlayerID())) {
-            if(board.isValidMove(turn, move.x, move.y, move.moveType, move.moveX, move.moveY)) {
+            if(!stopClock()) {
+                endGame(turn ? "BWin" : "AWin", outOfTime());
+            } else if(board.isValidMove(turn, move.move)) {
                 GameMessage success = new GameMessage(messageType.MOVE_SUCCESS);
                 success.userName = getActivePlayerID();
-                success.x = move.x;
-                success.y = move.y;
-                success.moveType = move.moveType;
-                success.moveX = move.moveX;
-                success.moveY = move.moveY;
+                success.move = move.move;
+                setClocks(success);
                 broadcast(success);
 
-                updateBoard(move.x, move.y, move.moveType, move.moveX, move.moveY);
+                updateBoard(move.move);
 
             } else {
                 GameMessage fail = new GameMessage(messageType.MOVE_FAILURE);
                 fail.userName = getActivePlayerID();
-                fail.x = move.x;
-                fail.y = move.y;
-                fail.moveType = move.moveType;
-                fail.moveX = move.moveX;
-                fail.moveY = move.moveY;
+                fail.move = move.move;
                 fail.errorMessage = "illegal move";
 
                 endGame(turn ? "BWin" : "AWin", fail);
@@ -122,11 +179,7 @@ public class GameRoom {
         } else {
             GameMessage fail = new GameMessage(messageType.MOVE_FAILURE);
             fail.userName = move.userName;
-            fail.x = move.x;
-            fail.y = move.y;
-            fail.moveType = move.moveType;
-            fail.moveX = move.moveX;
-            fail.moveY = move.moveY;
+            fail.move = move.move;
             fail.errorMessage = "wrong turn";
 
             endGame(turn ? "BWin" : "AWin", fail);
@@ -135,22 +188,108 @@ public class GameRoom {
 
     /**
      * Update the board on the server
-     * @param x the x coordinate of the piece that is to be updated
-     * @param y the y coordinate of the piece that is to be updated
-     * @param moveType the type of the move, rotated or moved to a new location
-     * @param nX the new x coordinate of the piece
-     * @param nY the new y coordinate of the piece
-     */
-    private void updateBoard(int x,int y,String moveType,int nX,int nY) {
-        board.update(x,y,moveType,nX,nY);
-        LaserPiece aLaser = board.getALaser();
-        LaserPiece bLaser = board.getBLaser();
-        if(turn) board.fireLaser(aLaser.getX(), aLaser.getY(), aLaser.getOrientation());
-        else board.fireLaser(bLaser.getX(), bLaser.getY(), bLaser.getOrientation());
+     * @param move the move code, as described in {@link com.hyperkinetic.game.board.Move}
+     */
+    private void updateBoard(int move) {
+        board.update(move);
+        LaserTrace trace = board.fireLaser();
         turn = !turn;
 
-        String res = board.getGameState();
-        endGame(res,null);
+        // the game can only end when a king was hit
+        if(trace.isKingDestroyed(true) || trace.isKingDestroyed(false))
+            endGame(board.getGameState(),null);
+        else
+            startClock();
+    }
+
+    /**
+     * Start the clock of the player to move, and the timer that ends the game when it runs out.
+     */
+    private void startClock()
+    {
+        turnStart = System.currentTimeMillis();
+        scheduleFlag(turn ? whiteTime : blackTime);
+    }
+
+    /**
+     * Check the clock of the player to move after a delay.
+     * @param delay the time left on their clock, in milliseconds
+     */
+    private void scheduleFlag(long delay)
+    {
+        flag = clock.schedule(new Runnable()
+        {
+            @Override
+            public void run() {
+                checkFlag();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the clock of the player to move and add the increment for their move.
+     * @return false if their time had run out before the move arrived
+     */
+    private boolean stopClock()
+    {
+        if(flag != null) flag.cancel(false);
+        long left = (turn ? whiteTime : blackTime) - (System.currentTimeMillis() - turnStart);
+        if(left < 0) return false;
+
+        if(turn) whiteTime = left + increment;
+        else blackTime = left + increment;
+        return true;
+    }
+
+    /**
+     * Called by the clock when the time of the player to move may have run out.
+     */
+    private synchronized void checkFlag()
+    {
+        if(isOver) return;
+        long left = (turn ? whiteTime : blackTime) - (System.currentTimeMillis() - turnStart);
+        if(left > 0)
+        {
+            scheduleFlag(left);
+            return;
+        }
+
+        final String res = turn ? "BWin" : "AWin";
+        final GameMessage fail = outOfTime();
+        setOver();
+        results.execute(new Runnable()
+        {
+            @Override
+            public void run() {
+                reportResult(res, fail);
+            }
+        });
+    }
+
+    /**
+     * Empty the clock of the player to move, whose time has run out.
+     * @return the MOVE_FAILURE message that ends their game
+     */
+    private GameMessage outOfTime()
+    {
+        GameMessage fail = new GameMessage(messageType.MOVE_FAILURE);
+        fail.userName = getActivePlayerID();
+        fail.errorMessage = "out of time";
+        if(turn) whiteTime = 0;
+        else blackTime = 0;
+        setClocks(fail);
+        return fail;
+    }
+
+    /**
+     * Write the clocks into a message.
+     * @param message the message to be sent
+     */
+    private void setClocks(GameMessage message)
+    {
+        message.whiteTime = whiteTime;
+        message.blackTime = blackTime;
+        message.increment = increment;
     }
     
     public void disconnect(ServerThread st)
@@ -161,15 +300,35 @@ public class GameRoom {
             endGame("AWin",null);
     }
 
+    /**
+     * End the game, unless it has already ended.
+     * @param res "AWin" or "BWin"
+     * @param reason the message that ended the game, or null
+     */
+    public synchronized void endGame(String res, GameMessage reason)
+    {
+        if(isOver) return;
+        setOver();
+        reportResult(res, reason);
+    }
+
+    /**
+     * Mark the game as over and stop its clock. Called with the lock of the room held.
+     */
+    private void setOver()
+    {
+        isOver = true;
+        if(flag != null) flag.cancel(false);
+    }
+
     // if game over, send gameover message with updated stats (and reason) attached
-    public void endGame(String res, GameMessage reason)
+    private void reportResult(String res, GameMessage reason)
     {
         if(res.equals("AWin")){
             GameMessage gm = new GameMessage(messageType.GAME_OVER);
             gm.userName = aThread.getUserName();
             gm.userName2 = bThread.getUserName();
             gs.updateDatabase(gm);
-            isOver = true;
 
             GameMessage statsRequest = new GameMessage(messageType.STATS_REQUEST);
             statsRequest.userName = aThread.getUserName();
@@ -194,7 +353,6 @@ public class GameRoom {
             gm.userName = bThread.getUserName();
             gm.userName2 = aThread.getUserName();
             gs.updateDatabase(gm);
-            isOver = true;
 
             GameMessage statsRequest = new GameMessage(messageType.STATS_REQUEST);
             statsRequest.userName = aThread.getUserName();
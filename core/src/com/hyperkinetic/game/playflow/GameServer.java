@@ -1,10 +1,16 @@
 package com.hyperkinetic.game.playflow;
 
 import com.hyperkinetic.game.core.LaserGame;
+import com.hyperkinetic.game.engine.Evaluator;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
 /**
@@ -53,9 +59,49 @@ public class GameServer {
      * stores mapping from playerID to GameRooms
      */
     private static Vector<GameRoom> gameRooms = new Vector<>();
+    /**
+     * Seconds a player waits alone in matchmaking before a bot is started to play against them, 0 for no bots
+     */
+    public static int botWaitSeconds = 15;
+    /**
+     * Number of threads that search the moves of all bots; this bounds the CPU used by bots however many rooms
+     * they play in
+     */
+    public static int botThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /**
+     * Starts bots for players that waited too long
+     */
+    private static ScheduledExecutorService botTimer;
+    /**
+     * Runs the searches of the bots
+     */
+    private static ExecutorService botPool;
+    /**
+     * Number of threads that search hints for players, kept apart from the ServerThreads and the bots
+     */
+    public static int analysisThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /**
+     * Number of hints one player may have queued or searching at a time
+     */
+    public static int hintsPerUser = 1;
+    /**
+     * Answers HINT_REQUEST messages
+     */
+    private static AnalysisService analysis;
+    /**
+     * Counts the calls to addToMatchmaking, so a bot timer can tell whether the queue changed while it waited
+     */
+    private static int matchmakingRound = 0;
 
+    /**
+     * Usage: <code>GameServer [botWaitSeconds] [botThreads] [analysisThreads]</code>
+     */
     public static void main(String[] args){
         LaserGame.IS_SERVER = true;
+        Evaluator.loadDefaultWeights();
+        if(args.length > 0) botWaitSeconds = Integer.parseInt(args[0]);
+        if(args.length > 1) botThreads = Integer.parseInt(args[1]);
+        if(args.length > 2) analysisThreads = Integer.parseInt(args[2]);
         GameServer gs = new GameServer();
     }
 
@@ -66,6 +112,8 @@ public class GameServer {
             System.out.println("Binding to port: "+port);
             ServerSocket ss = new ServerSocket(port);
             System.out.println("Connected!");
+            startBots();
+            analysis = new AnalysisService(analysisThreads, hintsPerUser);
 
             while(true) {
                 Socket s = ss.accept();
@@ -281,11 +329,21 @@ public class GameServer {
         System.out.println(message.getMessage());
     }
 
+    /**
+     * Queue the search of a hint on the analysis pool; the answers are sent to the player as they are found.
+     * @param st the thread of the player who asked
+     * @param message the HINT_REQUEST
+     */
+    public void requestHint(ServerThread st, GameMessage message)
+    {
+        analysis.requestHint(st, message);
+    }
+
     /**
      * Add the logged in user to the matchmaking queue
      * @param playerID the id of the player that is added to the matching queue
      */
-    public void addToMatchmaking(String playerID)
+    public synchronized void addToMatchmaking(String playerID)
     {
         for(ServerThread st : loggedInQueue)
         {
@@ -296,6 +354,7 @@ public class GameServer {
                 break;
             }
         }
+        matchmakingRound++;
         // DEBUG
         System.out.println(playerID+" has been put to matching queue.");
 
@@ -318,6 +377,62 @@ public class GameServer {
             ServerThread lastUser = matchingQueue.lastElement();
             matchingQueue.clear();
             matchingQueue.add(lastUser);
+            scheduleBot(lastUser);
         }
     }
+
+    /**
+     * Create the thread pools of the bots.
+     */
+    private void startBots()
+    {
+        ThreadFactory daemons = new ThreadFactory()
+        {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "bot " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        botTimer = Executors.newSingleThreadScheduledExecutor(daemons);
+        botPool = Executors.newFixedThreadPool(botThreads, daemons);
+    }
+
+    /**
+     * Match a player with a bot if nobody else joins matchmaking in time.
+     * @param st the player left alone in the matching queue
+     */
+    private void scheduleBot(final ServerThread st)
+    {
+        if(botWaitSeconds <= 0 || botTimer == null) return;
+        final int round = matchmakingRound;
+        botTimer.schedule(new Runnable()
+        {
+            @Override
+            public void run() {
+                matchWithBot(st, round);
+            }
+        }, botWaitSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Put a player who is still waiting in a game against a new bot. The player plays white.
+     * @param st the waiting player
+     * @param round the matchmaking round the player started waiting in
+     */
+    private synchronized void matchWithBot(ServerThread st, int round)
+    {
+        // somebody joined matchmaking in the meantime
+        if(round != matchmakingRound || !matchingQueue.remove(st)) return;
+
+        BotServerThread bot = new BotServerThread(this, botPool);
+        GameRoom gr = new GameRoom(this, st, bot);
+        gameRooms.add(gr);
+        // DEBUG
+        System.out.println(st.getUserName()+" and "+bot.getUserName()+" have been put in match.");
+    }
 }
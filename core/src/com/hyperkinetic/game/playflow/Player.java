@@ -100,6 +100,18 @@ public class Player{
         sendMessage(request);
     }
 
+    /**
+     * Sends a move to the game room. The board is not changed.
+     * @param move the move code, as described in {@link com.hyperkinetic.game.board.Move}
+     */
+    public void sendMove(int move)
+    {
+        GameMessage message = new GameMessage(GameMessage.messageType.PLAYER_MOVE);
+        message.userName = playerID;
+        message.move = move;
+        sendMessage(message);
+    }
+
     /*
     public void requestStats(){
         GameMessage request = new GameMessage(GameMessage.messageType.STATS_REQUEST);
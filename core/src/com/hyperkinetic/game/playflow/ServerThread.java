@@ -9,7 +9,7 @@ public class ServerThread extends Thread {
     private ObjectInputStream in;
     private ObjectOutputStream out;
     private String userName;
-    private GameRoom room;
+    private volatile GameRoom room;
     private boolean loggedIn;
 
     public ServerThread(Socket s, GameServer gs){
@@ -31,10 +31,24 @@ public class ServerThread extends Thread {
     }
 
     /**
-     * Send the message object to output
+     * Creates a player that lives on the server without a connection, such as a bot. No thread is started; the
+     * subclass receives its messages through {@link #sendMessage}.
+     * @param gs the server
+     * @param userName the name the player is shown with
+     */
+    protected ServerThread(GameServer gs, String userName)
+    {
+        this.gs = gs;
+        this.userName = userName;
+        loggedIn = true;
+    }
+
+    /**
+     * Send the message object to output. Synchronized, as the analysis threads send hints while this thread or
+     * its GameRoom may be sending other messages
      * @param message the message to be sent
      */
-    public void sendMessage(GameMessage message)
+    public synchronized void sendMessage(GameMessage message)
     {
         try
         {
@@ -61,6 +75,16 @@ public class ServerThread extends Thread {
     public void leaveGame(){
         this.room = null;
     }
+
+    /**
+     * Getter of the GameRoom this thread plays in
+     * @return the room, or null when not in a game
+     */
+    protected GameRoom getRoom()
+    {
+        return room;
+    }
+
     /**
      * Getter of the playerID
      * @return
@@ -115,6 +139,8 @@ public class ServerThread extends Thread {
                             GameMessage response = gs.queryDatabase(message);
                             gs.logMessage(response);
                             sendMessage(response);
+                        } else if(message.getMessageType()==GameMessage.messageType.HINT_REQUEST) {
+                            gs.requestHint(this, message);
                         }
                     } catch (ClassNotFoundException cnfe) {
                         System.out.println("cnfe in run() of ServerThread " + userName);
@@ -126,7 +152,11 @@ public class ServerThread extends Thread {
                     try {
                         GameMessage message = (GameMessage) in.readObject();
                         gs.logMessage(message);
-                        room.readMessage(message);
+                        // the game may have ended on the clock and the room left while this thread was reading
+                        GameRoom current = room;
+                        // hints are searched on the analysis pool, never in the room
+                        if(message.getMessageType()==GameMessage.messageType.HINT_REQUEST) gs.requestHint(this, message);
+                        else if(current != null) current.readMessage(message);
                     } catch (ClassNotFoundException cnfe) {
                         System.out.println("cnfe in run() of ServerThread " + userName);
                         cnfe.printStackTrace();
@@ -135,9 +165,10 @@ public class ServerThread extends Thread {
             }
         } catch(IOException ioe) {
             System.out.println("ioe in ServerThread run(): "+ioe.getMessage());
-            if(loggedIn && room!=null){
+            GameRoom current = room;
+            if(loggedIn && current!=null){
                 System.out.println("Terminating connection with client...");
-                room.disconnect(this);
+                current.disconnect(this);
             }
         }
     }
@@ -1,5 +1,7 @@
 package com.hyperkinetic.game.util;
 
+import com.hyperkinetic.game.board.BoardState;
+
 /**
  * Wrapper class containing public variables to describe the directions of lasers
  * and mirrors. Contains common utility methods for calculating laser reflection.
@@ -31,6 +33,154 @@ public class Directions
         SOUTHWEST
     }
 
+    /**
+     * Cached values of the enums, indexed by clockwise quarter turns from north (or northwest).
+     */
+    private static final Direction[] BY_QUARTER_TURNS =
+            { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST };
+    private static final MirrorDirection[] MIRROR_BY_QUARTER_TURNS = MirrorDirection.values();
+
+    /**
+     * Reflected laser directions indexed by mirror direction and incoming laser direction ordinals.
+     */
+    private static final Direction[][] REFLECTIONS = {
+            { null, null, Direction.WEST, Direction.NORTH },    // NORTHWEST
+            { null, Direction.NORTH, Direction.EAST, null },    // NORTHEAST
+            { Direction.EAST, Direction.SOUTH, null, null },    // SOUTHEAST
+            { Direction.WEST, null, null, Direction.SOUTH }     // SOUTHWEST
+    };
+
+    /**
+     * Returned by {@link #outgoing} when a piece is destroyed by the laser.
+     */
+    public static final int DESTROYED = -1;
+    /**
+     * Returned by {@link #outgoing} when a piece stops the laser without being destroyed.
+     */
+    public static final int ABSORBED = 0;
+
+    /**
+     * Change in x of a laser travelling in each direction, indexed by {@link Direction#ordinal()}.
+     */
+    public static final int[] X_STEP = { 0, -1, 0, 1 };
+    /**
+     * Change in y of a laser travelling in each direction, indexed by {@link Direction#ordinal()}.
+     */
+    public static final int[] Y_STEP = { 1, 0, -1, 0 };
+
+    /**
+     * Cached values of {@link Direction}, indexed by ordinal.
+     */
+    public static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Outgoing lasers for every piece kind, orientation and incoming laser direction. Each entry is a bitmask
+     * of outgoing direction ordinals, {@link #ABSORBED} or {@link #DESTROYED}.
+     */
+    private static final byte[] LASER_TABLE = new byte[BoardState.KIND_COUNT * 4 * 4];
+
+    static
+    {
+        for(int orientation = 0; orientation < 4; orientation++)
+        {
+            for(Direction laser : Direction.values())
+            {
+                int bit = mask(laser);
+                MirrorDirection mirror = toMirrorDirection(orientation);
+                Direction reflected = reflect(mirror, laser);
+                Direction oppositeReflected = reflect(toMirrorDirection(orientation + 2), laser);
+
+                // the king is destroyed from every side, the laser piece lets beams pass through
+                setOutgoing(BoardState.KING, orientation, laser, DESTROYED);
+                setOutgoing(BoardState.LASER, orientation, laser, bit);
+
+                // a guardian survives only lasers hitting its front
+                setOutgoing(BoardState.GUARDIAN, orientation, laser,
+                        quarterTurns(laser) == ((orientation + 2) & 3) ? ABSORBED : DESTROYED);
+
+                setOutgoing(BoardState.SINGLE_MIRROR, orientation, laser,
+                        reflected == null ? DESTROYED : mask(reflected));
+
+                // a double mirror reflects from one of its faces and lets the laser pass through as well
+                setOutgoing(BoardState.DOUBLE_MIRROR, orientation, laser,
+                        mask(reflected != null ? reflected : oppositeReflected) | bit);
+            }
+        }
+    }
+
+    private static void setOutgoing(int kind, int orientation, Direction laser, int outgoing)
+    {
+        LASER_TABLE[((kind << 2) + orientation << 2) + laser.ordinal()] = (byte) outgoing;
+    }
+
+    /**
+     * Looks up the lasers leaving a piece that is hit by a laser.
+     *
+     * @param kind the piece kind, as defined in {@link BoardState}
+     * @param orientation the orientation of the piece in clockwise quarter turns
+     * @param laser the ordinal of the direction the incoming laser travels in
+     * @return a bitmask of the ordinals of the outgoing laser directions, {@link #ABSORBED} if the laser is
+     * stopped, or {@link #DESTROYED} if the piece is destroyed
+     */
+    public static int outgoing(int kind, int orientation, int laser)
+    {
+        return LASER_TABLE[((kind << 2) + (orientation & 3) << 2) + laser];
+    }
+
+    /**
+     * @see #outgoing(int, int, int)
+     */
+    public static int outgoing(int kind, int orientation, Direction laser)
+    {
+        return outgoing(kind, orientation, laser.ordinal());
+    }
+
+    /**
+     * @return the bit representing a direction in the masks returned by {@link #outgoing}
+     */
+    public static int mask(Direction d)
+    {
+        return 1 << d.ordinal();
+    }
+
+    /**
+     * Converts a direction into clockwise quarter turns from north.
+     *
+     * @param d the direction
+     * @return 0 for north, 1 for east, 2 for south or 3 for west
+     */
+    public static int quarterTurns(Direction d)
+    {
+        return (4 - d.ordinal()) & 3;
+    }
+
+    /**
+     * Converts a mirror direction into clockwise quarter turns from northwest.
+     *
+     * @param m the mirror direction
+     * @return 0 for northwest, 1 for northeast, 2 for southeast or 3 for southwest
+     */
+    public static int quarterTurns(MirrorDirection m)
+    {
+        return m.ordinal();
+    }
+
+    /**
+     * Converts clockwise quarter turns from north into a direction.
+     */
+    public static Direction toDirection(int quarterTurns)
+    {
+        return BY_QUARTER_TURNS[quarterTurns & 3];
+    }
+
+    /**
+     * Converts clockwise quarter turns from northwest into a mirror direction.
+     */
+    public static MirrorDirection toMirrorDirection(int quarterTurns)
+    {
+        return MIRROR_BY_QUARTER_TURNS[quarterTurns & 3];
+    }
+
     /*public static boolean singleMirrorReflected(MirrorDirection mirror, Direction laser)
     {
         if(mirror == MirrorDirection.NORTHWEST)
@@ -58,27 +208,6 @@ public class Directions
     {
         if(mirror == null || laser == null) return null;
 
-        if(mirror == MirrorDirection.NORTHWEST)
-        {
-            if(laser == Direction.SOUTH) return Direction.WEST;
-            if(laser == Direction.EAST) return Direction.NORTH;
-        }
-        else if(mirror == MirrorDirection.NORTHEAST)
-        {
-            if(laser == Direction.SOUTH) return Direction.EAST;
-            if(laser == Direction.WEST) return Direction.NORTH;
-        }
-        else if(mirror == MirrorDirection.SOUTHEAST)
-        {
-            if(laser == Direction.NORTH) return Direction.EAST;
-            if(laser == Direction.WEST) return Direction.SOUTH;
-        }
-        else
-        {
-            if(laser == Direction.NORTH) return Direction.WEST;
-            if(laser == Direction.EAST) return Direction.SOUTH;
-        }
-
-        return null;
+        return REFLECTIONS[mirror.ordinal()][laser.ordinal()];
     }
 }